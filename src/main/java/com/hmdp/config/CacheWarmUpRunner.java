@@ -0,0 +1,269 @@
+package com.hmdp.config;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动时缓存预热：店铺类型、进行中的秒杀券、热点店铺优先，然后按id分段并行加载全部店铺
+ * <p>
+ * 数据库按id游标分批读取，每批通过pipeline写入redis；
+ * 预热进度达到阈值前应用保持未就绪（REFUSING_TRAFFIC，/actuator/health/readiness 返回 OUT_OF_SERVICE），
+ * 之后剩余部分在后台继续。未就绪期间Tomcat仍然可以处理请求，只有按就绪探针摘流的负载均衡才不会转发流量
+ */
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ApplicationContext applicationContext;
+
+    @Value("${hmdp.warmup.enabled:true}")
+    private boolean enabled;
+    /**
+     * 并行加载店铺的线程数
+     */
+    @Value("${hmdp.warmup.parallelism:4}")
+    private int parallelism;
+    @Value("${hmdp.warmup.batch-size:500}")
+    private int batchSize;
+    /**
+     * 按销量、评论数优先加载的热点店铺数量
+     */
+    @Value("${hmdp.warmup.hot-size:1000}")
+    private int hotSize;
+    /**
+     * 预热进度达到该比例后应用才就绪
+     */
+    @Value("${hmdp.warmup.ready-threshold:0.8}")
+    private double readyThreshold;
+    /**
+     * 等待达到就绪阈值的最长时间，超时后不再阻塞启动
+     */
+    @Value("${hmdp.warmup.max-wait-seconds:60}")
+    private long maxWaitSeconds;
+    @Value("${hmdp.cache.shop-strategy:pass-through}")
+    private String shopCacheStrategy;
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong loaded = new AtomicLong();
+    private volatile String state = "NOT_STARTED";
+    private volatile long beginTime;
+    private volatile long costMillis;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!enabled) {
+            state = "DISABLED";
+            return;
+        }
+        AvailabilityChangeEvent.publish(applicationContext, ReadinessState.REFUSING_TRAFFIC);
+        state = "RUNNING";
+        beginTime = System.currentTimeMillis();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "cache-warmup-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        CompletableFuture<Void> all;
+        try {
+            // 1.统计总数，用于计算进度
+            int shopCount = shopService.count();
+            int typeCount = shopTypeService.count();
+            int voucherCount = seckillVoucherService.query().gt("end_time", LocalDateTime.now()).count();
+            total.set((long) shopCount + Math.min(hotSize, shopCount) + typeCount + voucherCount);
+            // 2.数据量小的和热点数据先加载，再按id分段并行加载全部店铺
+            CompletableFuture<Void> types = CompletableFuture.runAsync(this::warmUpShopTypes, executor);
+            CompletableFuture<Void> vouchers = CompletableFuture.runAsync(this::warmUpSeckillVouchers, executor);
+            CompletableFuture<Void> shops = CompletableFuture.runAsync(this::warmUpHotShops, executor)
+                    .thenCompose(v -> warmUpAllShops(executor));
+            all = CompletableFuture.allOf(types, vouchers, shops);
+        } catch (Exception e) {
+            executor.shutdown();
+            state = "FAILED";
+            log.error("缓存预热启动失败", e);
+            return;
+        }
+        all.whenComplete((v, e) -> {
+            executor.shutdown();
+            costMillis = System.currentTimeMillis() - beginTime;
+            state = e == null ? "DONE" : "FAILED";
+            if (e != null) {
+                log.error("缓存预热失败，已加载：{}/{}", loaded.get(), total.get(), e);
+            } else {
+                log.info("缓存预热完成，数量：{}，耗时：{}ms", loaded.get(), costMillis);
+            }
+        });
+        // 3.达到就绪阈值前阻塞启动
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(maxWaitSeconds);
+        while (!all.isDone() && progress() < readyThreshold && System.currentTimeMillis() < deadline) {
+            try {
+                all.get(200, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ignored) {
+                log.info("缓存预热中，进度：{}%", String.format("%.1f", progress() * 100));
+            } catch (Exception e) {
+                break;
+            }
+        }
+        log.info("缓存预热进度：{}%，应用就绪", String.format("%.1f", progress() * 100));
+        AvailabilityChangeEvent.publish(applicationContext, ReadinessState.ACCEPTING_TRAFFIC);
+    }
+
+    private void warmUpShopTypes() {
+        List<ShopType> types = shopTypeService.query().orderByAsc("sort").list();
+        cacheClient.setList(CACHE_SHOP_TYPE_KEY, types);
+        // 构建内存快照，首个请求不再需要加载
+        shopTypeService.getSnapshot();
+        loaded.addAndGet(types.size());
+    }
+
+    private void warmUpSeckillVouchers() {
+        LocalDateTime now = LocalDateTime.now();
+        long lastId = 0;
+        while (true) {
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .gt("end_time", now)
+                    .gt("voucher_id", lastId)
+                    .orderByAsc("voucher_id")
+                    .last("limit " + batchSize)
+                    .list();
+            if (vouchers.isEmpty()) {
+                return;
+            }
+            Map<String, SeckillVoucher> values = new LinkedHashMap<>(vouchers.size());
+            vouchers.forEach(voucher -> values.put(CACHE_SECKILL_VOUCHER_KEY + voucher.getVoucherId(), voucher));
+            cacheClient.setBatch(values, CACHE_SECKILL_VOUCHER_TTL, TimeUnit.MINUTES);
+            // 库存只在不存在时写入，不能覆盖正在扣减的库存
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                vouchers.forEach(voucher ->
+                        conn.setNX(SECKILL_STOCK_KEY + voucher.getVoucherId(), voucher.getStock().toString()));
+                return null;
+            });
+            loaded.addAndGet(vouchers.size());
+            lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+        }
+    }
+
+    private void warmUpHotShops() {
+        if (hotSize <= 0) {
+            return;
+        }
+        List<Shop> shops = shopService.query()
+                .orderByDesc("sold", "comments")
+                .last("limit " + hotSize)
+                .list();
+        writeShops(shops);
+    }
+
+    /**
+     * 按id范围分成parallelism段，每段按id游标分批加载
+     */
+    private CompletableFuture<Void> warmUpAllShops(ExecutorService executor) {
+        Map<String, Object> range = shopService.getMap(
+                new QueryWrapper<Shop>().select("MIN(id) AS minId", "MAX(id) AS maxId"));
+        if (range == null || range.get("minId") == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long minId = ((Number) range.get("minId")).longValue();
+        long maxId = ((Number) range.get("maxId")).longValue();
+        long step = (maxId - minId) / parallelism + 1;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(parallelism);
+        for (long from = minId; from <= maxId; from += step) {
+            long begin = from;
+            long end = Math.min(from + step - 1, maxId);
+            futures.add(CompletableFuture.runAsync(() -> warmUpShopRange(begin, end), executor));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    private void warmUpShopRange(long from, long to) {
+        long lastId = from - 1;
+        while (true) {
+            List<Shop> shops = shopService.query()
+                    .gt("id", lastId)
+                    .le("id", to)
+                    .orderByAsc("id")
+                    .last("limit " + batchSize)
+                    .list();
+            if (shops.isEmpty()) {
+                return;
+            }
+            writeShops(shops);
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+    }
+
+    private void writeShops(List<Shop> shops) {
+        Map<String, Shop> values = new LinkedHashMap<>(shops.size());
+        shops.forEach(shop -> values.put(CACHE_SHOP_KEY + shop.getId(), shop));
+        // 与店铺缓存的读取策略使用相同的格式
+        if ("logical-expire".equals(shopCacheStrategy)) {
+            cacheClient.setWithLogicalExpireBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        } else {
+            cacheClient.setBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
+        loaded.addAndGet(shops.size());
+    }
+
+    private double progress() {
+        long t = total.get();
+        return t == 0 ? 1 : Math.min(1, (double) loaded.get() / t);
+    }
+
+    /**
+     * 预热状态和进度
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state);
+        stats.put("total", total.get());
+        stats.put("loaded", loaded.get());
+        stats.put("progress", progress());
+        stats.put("costMillis", "DONE".equals(state) ? costMillis : System.currentTimeMillis() - beginTime);
+        return stats;
+    }
+}
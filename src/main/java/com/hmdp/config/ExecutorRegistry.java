@@ -0,0 +1,233 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 统一管理的线程池：有界队列、命名线程、拒绝策略、任务异常日志、优雅关闭和运行指标
+ * <p>
+ * 线程数和队列长度可以通过 hmdp.executor.{name}.threads / queue-capacity 覆盖；
+ * virtual线程模式下工作线程为虚拟线程，队列和指标不变
+ */
+@Slf4j
+@Component
+public class ExecutorRegistry implements DisposableBean {
+
+    /**
+     * 队列已满时的处理方式
+     */
+    public enum Rejection {
+        /**
+         * 抛出RejectedExecutionException，由调用方降级，例如缓存重建被拒绝时继续返回旧数据
+         */
+        ABORT,
+        /**
+         * 由提交任务的线程直接执行，任务不能丢失时使用
+         */
+        CALLER_RUNS
+    }
+
+    private final Environment environment;
+    private final ThreadModeConfig threadModeConfig;
+    private final long shutdownTimeoutSeconds;
+    private final Map<String, ManagedExecutor> executors = new ConcurrentHashMap<>();
+
+    public ExecutorRegistry(Environment environment,
+                            ThreadModeConfig threadModeConfig,
+                            @Value("${hmdp.executor.shutdown-timeout-seconds:30}") long shutdownTimeoutSeconds) {
+        this.environment = environment;
+        this.threadModeConfig = threadModeConfig;
+        this.shutdownTimeoutSeconds = shutdownTimeoutSeconds;
+    }
+
+    /**
+     * 创建并登记线程池
+     * @param name 线程池名称，也是线程名前缀和配置项的名称
+     * @param threads 默认线程数
+     * @param queueCapacity 默认队列长度
+     * @param rejection 队列已满时的处理方式
+     */
+    public ExecutorService create(String name, int threads, int queueCapacity, Rejection rejection) {
+        String prefix = "hmdp.executor." + name + ".";
+        int t = environment.getProperty(prefix + "threads", Integer.class, threads);
+        int q = environment.getProperty(prefix + "queue-capacity", Integer.class, queueCapacity);
+        ManagedExecutor executor = new ManagedExecutor(name, t, q, threadFactory(name),
+                rejection == Rejection.CALLER_RUNS ? CALLER_RUNS : ABORT);
+        if (executors.putIfAbsent(name, executor) != null) {
+            executor.shutdown();
+            throw new IllegalStateException("线程池已存在：" + name);
+        }
+        return executor;
+    }
+
+    private ThreadFactory threadFactory(String name) {
+        if (threadModeConfig.isVirtual()) {
+            return VirtualThreads.newThreadFactory(name + "-");
+        }
+        AtomicInteger index = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + index.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * 各线程池的线程、队列、拒绝次数和任务的排队、执行耗时
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new TreeMap<>();
+        executors.forEach((name, executor) -> stats.put(name, executor.stats()));
+        return stats;
+    }
+
+    /**
+     * 关闭时先停止接收新任务，等待已提交的任务执行完，超时后中断
+     */
+    @Override
+    public void destroy() {
+        executors.values().forEach(ThreadPoolExecutor::shutdown);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeoutSeconds);
+        for (ManagedExecutor executor : executors.values()) {
+            try {
+                long remaining = deadline - System.nanoTime();
+                if (!executor.awaitTermination(Math.max(remaining, 0), TimeUnit.NANOSECONDS)) {
+                    log.warn("线程池关闭超时，中断剩余任务，线程池：{}，未执行任务数：{}",
+                            executor.name, executor.shutdownNow().size());
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final RejectedExecutionHandler ABORT = (r, executor) -> {
+        ManagedExecutor managed = (ManagedExecutor) executor;
+        managed.rejected.increment();
+        throw new RejectedExecutionException("线程池已满：" + managed.name);
+    };
+
+    private static final RejectedExecutionHandler CALLER_RUNS = (r, executor) -> {
+        ManagedExecutor managed = (ManagedExecutor) executor;
+        managed.rejected.increment();
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("线程池已关闭：" + managed.name);
+        }
+        r.run();
+    };
+
+    /**
+     * 记录提交时间的任务
+     */
+    private static class TimedTask implements Runnable {
+        private final Runnable task;
+        private final long submitNanos = System.nanoTime();
+        private long startNanos;
+
+        private TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    private static class ManagedExecutor extends ThreadPoolExecutor {
+        private final String name;
+        private final int queueCapacity;
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder started = new LongAdder();
+        private final LongAdder queueNanos = new LongAdder();
+        private final LongAdder runNanos = new LongAdder();
+        private final AtomicLong maxQueueNanos = new AtomicLong();
+
+        private ManagedExecutor(String name, int threads, int queueCapacity, ThreadFactory threadFactory,
+                                RejectedExecutionHandler handler) {
+            super(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueCapacity),
+                    threadFactory, handler);
+            this.name = name;
+            this.queueCapacity = queueCapacity;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(new TimedTask(command));
+        }
+
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            TimedTask task = (TimedTask) r;
+            task.startNanos = System.nanoTime();
+            long waited = task.startNanos - task.submitNanos;
+            started.increment();
+            queueNanos.add(waited);
+            maxQueueNanos.accumulateAndGet(waited, Math::max);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            TimedTask task = (TimedTask) r;
+            runNanos.add(System.nanoTime() - task.startNanos);
+            // submit提交的任务，异常保存在FutureTask中，这里取出来记录，避免异常被吞掉
+            Throwable error = t;
+            if (error == null && task.task instanceof FutureTask && ((FutureTask<?>) task.task).isDone()) {
+                try {
+                    ((FutureTask<?>) task.task).get();
+                } catch (CancellationException ignored) {
+                    // 取消的任务不算失败
+                } catch (ExecutionException e) {
+                    error = e.getCause();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (error != null) {
+                failed.increment();
+                log.error("线程池任务执行失败，线程池：{}", name, error);
+            }
+        }
+
+        private Map<String, Object> stats() {
+            long count = started.sum();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("threads", getMaximumPoolSize());
+            stats.put("poolSize", getPoolSize());
+            stats.put("active", getActiveCount());
+            stats.put("queueSize", getQueue().size());
+            stats.put("queueCapacity", queueCapacity);
+            stats.put("completed", getCompletedTaskCount());
+            stats.put("rejected", rejected.sum());
+            stats.put("failed", failed.sum());
+            stats.put("avgQueueMillis", count == 0 ? 0 : queueNanos.sum() / 1e6 / count);
+            stats.put("maxQueueMillis", maxQueueNanos.get() / 1e6);
+            stats.put("avgRunMillis", count == 0 ? 0 : runNanos.sum() / 1e6 / count);
+            return stats;
+        }
+    }
+}
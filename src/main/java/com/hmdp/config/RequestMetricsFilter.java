@@ -0,0 +1,157 @@
+package com.hmdp.config;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.annotation.Resource;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 统计请求的吞吐量和延迟分布，用于对比不同线程模式（见ThreadModeConfig）
+ * <p>
+ * 延迟按微秒记录在对数分桶的直方图中，每个2的幂区间再分8个桶，分位数的误差在12.5%以内；
+ * 异步请求在异步处理完成时记录，包含等待异步结果的时间
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestMetricsFilter extends OncePerRequestFilter {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    @Resource
+    private ThreadModeConfig threadModeConfig;
+
+    private volatile Window window = new Window();
+
+    private static class Window {
+        private final long beginMillis = System.currentTimeMillis();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long begin = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                // 异步请求：第一次分发结束时结果还没有返回，等异步处理完成（或超时、出错）后再记录
+                request.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        record(begin);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                record(begin);
+            }
+        }
+    }
+
+    private void record(long beginNanos) {
+        long micros = (System.nanoTime() - beginNanos) / 1000;
+        Window w = window;
+        w.buckets.incrementAndGet(bucket(micros));
+        w.count.increment();
+        w.totalMicros.add(micros);
+    }
+
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * 桶的上界（微秒）
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exp = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long width = 1L << (exp - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + sub) << (exp - SUB_BUCKET_BITS)) + width - 1;
+    }
+
+    /**
+     * 从上次重置到现在的吞吐量和延迟分位数
+     */
+    public Map<String, Object> stats() {
+        Window w = window;
+        long count = w.count.sum();
+        long elapsedMillis = Math.max(System.currentTimeMillis() - w.beginMillis, 1);
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = w.buckets.get(i);
+            total += snapshot[i];
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("threadMode", threadModeConfig.getMode());
+        stats.put("count", count);
+        stats.put("elapsedMillis", elapsedMillis);
+        stats.put("throughput", count * 1000.0 / elapsedMillis);
+        stats.put("avgMillis", count == 0 ? 0 : w.totalMicros.sum() / 1000.0 / count);
+        stats.put("p50Millis", percentile(snapshot, total, 0.50));
+        stats.put("p90Millis", percentile(snapshot, total, 0.90));
+        stats.put("p99Millis", percentile(snapshot, total, 0.99));
+        stats.put("p999Millis", percentile(snapshot, total, 0.999));
+        return stats;
+    }
+
+    private static double percentile(long[] snapshot, long total, double p) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i) / 1000.0;
+            }
+        }
+        return upperBound(snapshot.length - 1) / 1000.0;
+    }
+
+    /**
+     * 重新开始统计，压测前调用
+     */
+    public void reset() {
+        window = new Window();
+    }
+}
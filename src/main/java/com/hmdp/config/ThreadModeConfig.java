@@ -0,0 +1,55 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 线程模式：platform 使用平台线程；virtual 请求处理和各线程池的工作线程使用虚拟线程（需要JDK 21+）
+ * <p>
+ * 配置为virtual但JDK不支持时回退为platform
+ */
+@Slf4j
+@Configuration
+public class ThreadModeConfig {
+
+    private final boolean virtual;
+
+    public ThreadModeConfig(@Value("${hmdp.thread.mode:platform}") String mode) {
+        boolean wantVirtual = "virtual".equalsIgnoreCase(mode);
+        if (wantVirtual && !VirtualThreads.isSupported()) {
+            log.warn("当前JDK不支持虚拟线程，使用平台线程：{}", System.getProperty("java.version"));
+        }
+        this.virtual = wantVirtual && VirtualThreads.isSupported();
+    }
+
+    /**
+     * 是否使用虚拟线程，线程池（见ExecutorRegistry）据此选择线程工厂
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * 实际生效的线程模式
+     */
+    public String getMode() {
+        return virtual ? "virtual" : "platform";
+    }
+
+    /**
+     * virtual模式下Tomcat每个请求一个虚拟线程
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<ProtocolHandler> threadModeProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            if (virtual) {
+                protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("http-vt-"));
+            }
+        };
+    }
+}
@@ -0,0 +1,129 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.config.CacheWarmUpRunner;
+import com.hmdp.config.ExecutorRegistry;
+import com.hmdp.config.RequestMetricsFilter;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheChangeStream;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RedisLockFactory;
+import com.hmdp.utils.SessionManager;
+import com.hmdp.utils.ShopSearchIndex;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 运行指标查询
+ * </p>
+ */
+@RestController
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private RedisLockFactory lockFactory;
+    @Resource
+    private SessionManager sessionManager;
+    @Resource
+    private CacheWarmUpRunner cacheWarmUpRunner;
+    @Resource
+    private RequestMetricsFilter requestMetricsFilter;
+    @Resource
+    private ExecutorRegistry executorRegistry;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private CacheChangeStream cacheChangeStream;
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+
+    /**
+     * 查询缓存各级命中情况
+     */
+    @GetMapping("/cache")
+    public Result cacheStats() {
+        return Result.ok(cacheClient.stats());
+    }
+
+    /**
+     * 查询分布式锁的等待时间和竞争情况
+     */
+    @GetMapping("/lock")
+    public Result lockStats() {
+        return Result.ok(lockFactory.stats());
+    }
+
+    /**
+     * 查询登录会话本地缓存的命中情况和过期时间的批量刷新情况
+     */
+    @GetMapping("/session")
+    public Result sessionStats() {
+        return Result.ok(sessionManager.stats());
+    }
+
+    /**
+     * 查询启动时缓存预热的进度
+     */
+    @GetMapping("/warmup")
+    public Result warmUpStats() {
+        return Result.ok(cacheWarmUpRunner.stats());
+    }
+
+    /**
+     * 查询请求的吞吐量和延迟分位数，以及当前的线程模式
+     */
+    @GetMapping("/request")
+    public Result requestStats() {
+        return Result.ok(requestMetricsFilter.stats());
+    }
+
+    /**
+     * 重新开始统计请求指标
+     */
+    @PostMapping("/request/reset")
+    public Result resetRequestStats() {
+        requestMetricsFilter.reset();
+        return Result.ok();
+    }
+
+    /**
+     * 查询各线程池的队列长度、活跃线程数、拒绝次数和任务耗时
+     */
+    @GetMapping("/executor")
+    public Result executorStats() {
+        return Result.ok(executorRegistry.stats());
+    }
+
+    /**
+     * 查询当前的热点key及其估算访问次数
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeyStats() {
+        return Result.ok(hotKeyDetector.stats());
+    }
+
+    /**
+     * 查询变更事件驱动的缓存删除次数，以及等待第二次删除的key数
+     */
+    @GetMapping("/cache-change")
+    public Result cacheChangeStats() {
+        return Result.ok(cacheChangeStream.stats());
+    }
+
+    /**
+     * 查询店铺搜索索引的店铺数、词项数和上次构建耗时
+     */
+    @GetMapping("/search")
+    public Result searchStats() {
+        return Result.ok(shopSearchIndex.stats());
+    }
+}
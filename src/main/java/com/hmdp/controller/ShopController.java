@@ -1,15 +1,13 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -32,9 +30,9 @@ public class ShopController {
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-
-        return Result.ok(shopService.queryById(id));
+    public CompletableFuture<Result> queryShopById(@PathVariable("id") Long id) {
+        // 异步返回，等待redis期间不占用请求线程
+        return shopService.queryByIdAsync(id);
     }
 
     /**
@@ -45,9 +43,7 @@ public class ShopController {
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -57,8 +53,7 @@ public class ShopController {
      */
     @PutMapping
     public Result updateShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.updateById(shop);
+        // 写入数据库并删除缓存
         return shopService.update(shop);
     }
 
@@ -66,37 +61,55 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
-     * @return 商铺列表
+     * @param x 经度，不传则不按距离排序
+     * @param y 纬度，不传则不按距离排序
+     * @param cursor 传入时使用游标分页（第一页传空字符串），忽略current
+     * @param count 游标分页时是否返回总条数
+     * @return 商铺列表；游标分页时为CursorResult
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "count", defaultValue = "false") Boolean count
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        if (cursor != null) {
+            return shopService.queryShopByTypeCursor(typeId, cursor, x, y, count);
+        }
+        return shopService.queryShopByType(typeId, current, x, y);
     }
 
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
      * @param current 页码
-     * @return 商铺列表
+     * @param cursor 传入时使用游标分页（第一页传空字符串），忽略current
+     * @param count 游标分页时是否返回总条数
+     * @return 商铺列表；游标分页时为CursorResult
      */
     @GetMapping("/of/name")
     public Result queryShopByName(
             @RequestParam(value = "name", required = false) String name,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "count", defaultValue = "false") Boolean count
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        if (cursor != null) {
+            return shopService.queryShopByNameCursor(name, cursor, count);
+        }
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 店铺名称输入联想
+     * @param prefix 已输入的内容
+     * @return 匹配的店铺名称
+     */
+    @GetMapping("/suggest")
+    public Result suggestShopName(@RequestParam(value = "prefix", required = false) String prefix) {
+        return shopService.suggestShopName(prefix);
     }
 }
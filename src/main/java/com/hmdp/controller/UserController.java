@@ -6,6 +6,7 @@ import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
+import com.hmdp.service.ISignService;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.UserHolder;
@@ -37,6 +38,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private ISignService signService;
+
     /**
      * 发送手机验证码
      */
@@ -63,9 +67,8 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader(value = "authorization", required = false) String token){
+        return userService.logout(token);
     }
 
     @GetMapping("/me")
@@ -88,4 +91,37 @@ public class UserController {
         // 返回
         return Result.ok(info);
     }
+
+    /**
+     * 今天签到
+     */
+    @PostMapping("/sign")
+    public Result sign(){
+        return signService.sign();
+    }
+
+    /**
+     * 补签本月之前的某一天
+     * @param day 几号
+     */
+    @PostMapping("/sign/backup")
+    public Result makeUpSign(@RequestParam("day") Integer day){
+        return signService.makeUpSign(day);
+    }
+
+    /**
+     * 连续签到天数
+     */
+    @GetMapping("/sign/count")
+    public Result signCount(){
+        return signService.signCount();
+    }
+
+    /**
+     * 本月签到天数
+     */
+    @GetMapping("/sign/month")
+    public Result signMonthCount(){
+        return signService.signMonthCount();
+    }
 }
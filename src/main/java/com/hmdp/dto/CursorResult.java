@@ -0,0 +1,34 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页的结果
+ */
+@Data
+public class CursorResult {
+    private List<?> list;
+    /**
+     * 下一页的游标，原样传回即可；为null表示没有下一页
+     */
+    private String next;
+    /**
+     * 总条数，只在请求count=true时查询
+     */
+    private Long total;
+
+    /**
+     * @param list 本页数据
+     * @param next 下一页的游标，本页不满时传null
+     * @param total 总条数，不需要时传null
+     */
+    public static CursorResult of(List<?> list, String next, Long total) {
+        CursorResult r = new CursorResult();
+        r.setList(list);
+        r.setNext(next);
+        r.setTotal(total);
+        return r;
+    }
+}
@@ -0,0 +1,35 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.Getter;
+import org.springframework.util.DigestUtils;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 店铺类型列表的不可变快照：数据、版本号和预先序列化好的响应体
+ * <p>
+ * ETag取响应体的摘要，各节点数据相同则ETag相同，客户端切换节点也能得到304
+ */
+@Getter
+public class ShopTypeSnapshot {
+
+    /**
+     * 加载时redis中的版本号，版本号变化后重新加载
+     */
+    private final long version;
+    private final List<ShopType> types;
+    /**
+     * Result.ok(types)序列化后的JSON
+     */
+    private final byte[] body;
+    private final String etag;
+
+    public ShopTypeSnapshot(long version, List<ShopType> types, byte[] body) {
+        this.version = version;
+        this.types = Collections.unmodifiableList(types);
+        this.body = body;
+        this.etag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+    }
+}
@@ -0,0 +1,24 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.Sign;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+public interface SignMapper extends BaseMapper<Sign> {
+
+    /**
+     * 批量写入签到归档，同一用户同一月份已存在时覆盖位图
+     * @param signs 归档数据
+     */
+    int upsertBatch(@Param("signs") List<Sign> signs);
+}
@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,50 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    /**
+     * 保存探店博文，并异步推送到粉丝的收件箱
+     * @param blog 博文
+     * @return 博文id
+     */
+    Result saveBlog(Blog blog);
+
+    /**
+     * 滚动分页查询关注的人发布的博文
+     * @param max 上一页最小的时间戳
+     * @param offset 上一页中与最小时间戳相同的条数
+     * @return ScrollResult
+     */
+    Result queryBlogOfFollow(Long max, Integer offset);
+
+    /**
+     * 点赞或取消点赞
+     * @param id 博文id
+     */
+    Result likeBlog(Long id);
+
+    /**
+     * 查询最早点赞的5个用户
+     * @param id 博文id
+     */
+    Result queryBlogLikes(Long id);
+
+    /**
+     * 按点赞数分页查询热门博文
+     * @param current 页码
+     */
+    Result queryHotBlog(Integer current);
+
+    /**
+     * 游标分页查询热门博文
+     * @param cursor 上一页返回的游标，第一页传空字符串
+     * @param withCount 是否查询总条数
+     */
+    Result queryHotBlogCursor(String cursor, boolean withCount);
+
+    /**
+     * 游标分页查询当前用户的博文
+     * @param cursor 上一页返回的游标，第一页传空字符串
+     * @param withCount 是否查询总条数
+     */
+    Result queryMyBlogCursor(String cursor, boolean withCount);
 }
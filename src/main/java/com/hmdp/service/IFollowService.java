@@ -1,8 +1,12 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +17,36 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IFollowService extends IService<Follow> {
 
+    /**
+     * 关注或取关
+     * @param followUserId 被关注的用户id
+     * @param isFollow true关注，false取关
+     */
+    Result follow(Long followUserId, Boolean isFollow);
+
+    /**
+     * 当前用户是否关注了该用户
+     * @param followUserId 被关注的用户id
+     */
+    Result isFollow(Long followUserId);
+
+    /**
+     * 当前用户与该用户的共同关注
+     * @param id 目标用户id
+     */
+    Result followCommons(Long id);
+
+    /**
+     * 粉丝数量
+     * @param userId 用户id
+     */
+    long countFollowers(Long userId);
+
+    /**
+     * 按id游标分批遍历用户的粉丝
+     * @param userId 用户id
+     * @param batchSize 每批数量
+     * @param consumer 每批粉丝id的处理逻辑
+     */
+    void forEachFollowerBatch(Long userId, int batchSize, Consumer<List<Long>> consumer);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -21,11 +23,75 @@ public interface IShopService extends IService<Shop> {
      */
     Result queryById(Long id);
 
+    /**
+     * 异步查询商铺信息，请求线程不等待redis的网络IO
+     * @param id 商铺id
+     * @return 商铺详情数据
+     */
+    CompletableFuture<Result> queryByIdAsync(Long id);
+
     /**
      * 新增商铺信息
      * @param shop 商铺数据
      * @return 商铺id
      */
+    Result saveShop(Shop shop);
 
+    /**
+     * 更新商铺信息
+     * @param shop 商铺数据
+     * @return 无
+     */
     Result update(Shop shop);
+
+    /**
+     * 根据商铺类型分页查询商铺信息，传入坐标时按距离由近到远排序
+     * @param typeId 商铺类型
+     * @param current 页码
+     * @param x 经度
+     * @param y 纬度
+     * @return 商铺列表
+     */
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    /**
+     * 根据商铺类型游标分页查询商铺信息
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，第一页传空字符串
+     * @param x 经度，不传则按id排序
+     * @param y 纬度，不传则按id排序
+     * @param withCount 是否查询总条数，按距离排序时不支持
+     * @return 商铺列表和下一页的游标
+     */
+    Result queryShopByTypeCursor(Integer typeId, String cursor, Double x, Double y, boolean withCount);
+
+    /**
+     * 根据商铺名称关键字分页查询商铺信息，有关键字时按相关度排序
+     * @param name 商铺名称关键字，同时匹配商圈和地址
+     * @param current 页码
+     * @return 商铺列表
+     */
+    Result queryShopByName(String name, Integer current);
+
+    /**
+     * 根据商铺名称关键字游标分页查询商铺信息
+     * @param name 商铺名称关键字
+     * @param cursor 上一页返回的游标，第一页传空字符串
+     * @param withCount 是否查询总条数
+     * @return 商铺列表和下一页的游标
+     */
+    Result queryShopByNameCursor(String name, String cursor, boolean withCount);
+
+    /**
+     * 店铺名称输入联想
+     * @param prefix 已输入的内容
+     * @return 匹配的店铺名称
+     */
+    Result suggestShopName(String prefix);
+
+    /**
+     * 把全部店铺按类型导入redis的GEO
+     * @return 导入的店铺数量
+     */
+    int loadShopGeo();
 }
@@ -1,6 +1,7 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -21,4 +22,10 @@ public interface IShopTypeService extends IService<ShopType> {
      * @return 商铺类型列表
      */
     Result ListType();
+
+    /**
+     * 店铺类型列表的内存快照
+     * @return 快照，包含预先序列化好的响应体和ETag
+     */
+    ShopTypeSnapshot getSnapshot();
 }
@@ -0,0 +1,37 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+/**
+ * <p>
+ *  服务类
+ * </p>
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+public interface ISignService extends IService<Sign> {
+
+    /**
+     * 今天签到
+     */
+    Result sign();
+
+    /**
+     * 补签本月之前的某一天
+     * @param day 几号
+     */
+    Result makeUpSign(Integer day);
+
+    /**
+     * 截止到今天的连续签到天数
+     */
+    Result signCount();
+
+    /**
+     * 本月累计签到天数
+     */
+    Result signMonthCount();
+}
@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -29,4 +32,17 @@ public interface IUserService extends IService<User> {
      * @param loginForm 登录参数，包含手机号、验证码；或者手机号、密码
      */
     Result login(LoginFormDTO loginForm, HttpSession session);
+
+    /**
+     * 登出功能
+     * @param token 登录令牌
+     */
+    Result logout(String token);
+
+    /**
+     * 批量查询用户的基本信息（走缓存）
+     * @param ids 用户id集合
+     * @return 用户id -> 用户基本信息
+     */
+    Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -27,4 +29,10 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
      * @return
      */
     Result createVoucherOrder(Long voucherId);
+
+    /**
+     * 批量落库异步秒杀产生的订单（扣减数据库库存并保存订单）
+     * @param voucherOrders 订单列表
+     */
+    void createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
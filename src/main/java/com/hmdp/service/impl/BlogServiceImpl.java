@@ -1,11 +1,55 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.BooleanUtil;
+import com.hmdp.config.ExecutorRegistry;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IFollowService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.PageCursor;
+import com.hmdp.utils.RedisLockFactory;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.MAX_PAGE_SIZE;
+
 /**
  * <p>
  *  服务实现类
@@ -14,7 +58,486 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    private static final int LIKE_FLUSH_BATCH_SIZE = 500;
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("lua/like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IFollowService followService;
+    @Resource
+    private IUserService userService;
+    @Resource
+    private RedisLockFactory lockFactory;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private ExecutorRegistry executorRegistry;
+
+    /**
+     * 推送线程池，队列满时由发布请求的线程直接推送，保证博文一定会推送给粉丝
+     */
+    private ExecutorService feedFanoutExecutor;
+
+    /**
+     * 粉丝数达到该值的作者不再推送到粉丝收件箱，改为粉丝读取时从作者发件箱拉取
+     */
+    @Value("${hmdp.feed.push-threshold:5000}")
+    private long pushThreshold;
+    /**
+     * 推送时每批处理的粉丝数
+     */
+    @Value("${hmdp.feed.batch-size:500}")
+    private int fanoutBatchSize;
+    /**
+     * 热度的衰减周期：晚发布一个周期的博文，与点赞数多10倍的博文热度相同
+     */
+    @Value("${hmdp.blog.hot-decay-hours:12}")
+    private long hotDecayHours;
+
+    @PostConstruct
+    private void init() {
+        feedFanoutExecutor = executorRegistry.create("feed-fanout", 2, 1000, ExecutorRegistry.Rejection.CALLER_RUNS);
+        // 点赞排行或热度排行不存在时从数据库加载
+        if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_LIKED_RANK_KEY))
+                || !BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            loadBlogRank();
+        }
+    }
+
+    @Override
+    public Result saveBlog(Blog blog) {
+        // 1.获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        // 2.保存探店博文
+        if (!save(blog)) {
+            return Result.fail("新增笔记失败！");
+        }
+        // 3.加入点赞排行和热度排行
+        long timestamp = System.currentTimeMillis();
+        String blogId = blog.getId().toString();
+        stringRedisTemplate.opsForZSet().addIfAbsent(BLOG_LIKED_RANK_KEY, blogId, 0);
+        stringRedisTemplate.opsForZSet().addIfAbsent(BLOG_HOT_KEY, blogId, hotScore(0, timestamp));
+        // 4.删除博文卡片缓存（可能缓存了空值），首次读取时从数据库加载，包含数据库生成的默认值和创建时间
+        cacheClient.evict(CACHE_BLOG_CARD_KEY + blogId);
+        // 5.异步推送，不阻塞发布请求
+        feedFanoutExecutor.submit(() -> fanout(blog.getUserId(), blog.getId(), timestamp));
+        // 6.返回id
+        return Result.ok(blog.getId());
+    }
+
+    private void fanout(Long authorId, Long blogId, long timestamp) {
+        try {
+            String member = blogId.toString();
+            // 1.写入作者的发件箱，只保留最近的博文
+            String outbox = FEED_OUTBOX_KEY + authorId;
+            stringRedisTemplate.opsForZSet().add(outbox, member, timestamp);
+            stringRedisTemplate.opsForZSet().removeRange(outbox, 0, -FEED_MAX_SIZE - 1);
+            // 2.大V只写发件箱，由粉丝读取时拉取
+            if (BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(FEED_BIG_V_KEY, authorId.toString()))) {
+                return;
+            }
+            if (followService.countFollowers(authorId) >= pushThreshold) {
+                // 一旦转为拉模式就不再切回，避免粉丝收件箱里缺少之前没有推送的博文
+                stringRedisTemplate.opsForSet().add(FEED_BIG_V_KEY, authorId.toString());
+                log.info("作者粉丝数达到{}，转为拉模式，authorId：{}", pushThreshold, authorId);
+                return;
+            }
+            // 3.普通作者，分批推送到粉丝的收件箱，每批一次pipeline
+            followService.forEachFollowerBatch(authorId, fanoutBatchSize, followerIds ->
+                    stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        StringRedisConnection conn = (StringRedisConnection) connection;
+                        for (Long followerId : followerIds) {
+                            String inbox = FEED_KEY + followerId;
+                            conn.zAdd(inbox, timestamp, member);
+                            conn.zRemRange(inbox, 0, -FEED_MAX_SIZE - 1);
+                        }
+                        return null;
+                    }));
+        } catch (Exception e) {
+            log.error("推送博文到粉丝收件箱失败，authorId：{}，blogId：{}", authorId, blogId, e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Result queryBlogOfFollow(Long max, Integer offset) {
+        // 1.获取当前用户
+        Long userId = UserHolder.getUser().getId();
+        // 2.数据来源：自己的收件箱 + 关注的大V的发件箱
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        Set<String> bigVs = stringRedisTemplate.opsForSet().intersect(FOLLOW_KEY + userId, FEED_BIG_V_KEY);
+        if (bigVs != null) {
+            bigVs.forEach(id -> keys.add(FEED_OUTBOX_KEY + id));
+        }
+        // 3.每个来源取前 offset + pageSize 条：ZREVRANGEBYSCORE key max 0 WITHSCORES LIMIT 0 count
+        long count = offset + MAX_PAGE_SIZE;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.zRevRangeByScoreWithScores(key, 0, max, 0, count);
+            }
+            return null;
+        });
+        // 4.合并，按时间戳倒序，时间戳相同按id倒序保证顺序稳定，同一篇博文只保留一次
+        List<ZSetOperations.TypedTuple<String>> tuples = new ArrayList<>();
+        for (Object result : results) {
+            if (result != null) {
+                tuples.addAll((Set<ZSetOperations.TypedTuple<String>>) result);
+            }
+        }
+        tuples.sort((a, b) -> {
+            int c = Double.compare(b.getScore(), a.getScore());
+            return c != 0 ? c : Long.compare(Long.parseLong(b.getValue()), Long.parseLong(a.getValue()));
+        });
+        Map<String, Double> merged = new LinkedHashMap<>(tuples.size());
+        tuples.forEach(tuple -> merged.putIfAbsent(tuple.getValue(), tuple.getScore()));
+        // 5.跳过上一页已经返回的offset条，解析出blogId、minTime（时间戳）、offset
+        List<Long> ids = new ArrayList<>(MAX_PAGE_SIZE);
+        long minTime = 0;
+        int os = 1;
+        int index = 0;
+        for (Map.Entry<String, Double> entry : merged.entrySet()) {
+            if (index++ < offset) {
+                continue;
+            }
+            if (ids.size() >= MAX_PAGE_SIZE) {
+                break;
+            }
+            ids.add(Long.valueOf(entry.getKey()));
+            long time = entry.getValue().longValue();
+            if (time == minTime) {
+                os++;
+            } else {
+                minTime = time;
+                os = 1;
+            }
+        }
+        if (ids.isEmpty()) {
+            return Result.ok();
+        }
+        // 最小时间戳与上一页相同，需要累加上一页的offset
+        os = minTime == max ? os + offset : os;
+        // 6.根据id查询blog，保持时间顺序
+        Map<Long, Blog> blogMap = listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, Function.identity()));
+        List<Blog> blogs = ids.stream().map(blogMap::get).filter(Objects::nonNull).collect(Collectors.toList());
+        fillBlogUser(blogs);
+        fillBlogLiked(blogs);
+        // 7.封装并返回
+        ScrollResult r = new ScrollResult();
+        r.setList(blogs);
+        r.setOffset(os);
+        r.setMinTime(minTime);
+        return Result.ok(r);
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        // 1.获取登录用户
+        String userId = UserHolder.getUser().getId().toString();
+        String key = BLOG_LIKED_KEY + id;
+        // 2.判断当前登录用户是否已经点赞
+        Double score = stringRedisTemplate.opsForZSet().score(key, userId);
+        if (score == null) {
+            // 3.未点赞，保存用户到点赞集合 zadd key value score，并发重复点击只有一次能加入成功
+            Boolean added = stringRedisTemplate.opsForZSet().add(key, userId, System.currentTimeMillis());
+            if (BooleanUtil.isTrue(added)) {
+                changeLiked(id, 1);
+            }
+        } else {
+            // 4.已点赞，取消点赞，把用户从点赞集合中移除
+            Long removed = stringRedisTemplate.opsForZSet().remove(key, userId);
+            if (removed != null && removed > 0) {
+                changeLiked(id, -1);
+            }
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 点赞数的变化先记在redis：增量用于定时写回数据库，点赞排行和热度排行用于热门查询
+     */
+    private void changeLiked(Long id, long delta) {
+        stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_RANK_KEY, BLOG_HOT_KEY, BLOG_LIKED_DELTA_KEY),
+                id.toString(), String.valueOf(delta)
+        );
+    }
+
+    /**
+     * 热度 = log10(点赞数) + 发布时间 / 衰减周期，发布时间不变，热度只随点赞数增加，不需要定时重算
+     */
+    private double hotScore(long liked, long createMillis) {
+        return Math.log10(Math.max(liked, 1)) + (double) createMillis / TimeUnit.HOURS.toMillis(hotDecayHours);
+    }
+
+    @Override
+    public Result queryBlogLikes(Long id) {
+        // 1.查询最早点赞的top5用户 zrange key 0 4
+        Set<String> top5 = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_KEY + id, 0, 4);
+        if (top5 == null || top5.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 2.批量查询用户，保持点赞顺序
+        List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOs(ids);
+        List<UserDTO> userDTOS = ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList());
+        return Result.ok(userDTOS);
+    }
+
+    @Override
+    public Result queryHotBlog(Integer current) {
+        // 1.从热度排行中分页查询 zrevrange key start end
+        long start = (long) (current - 1) * MAX_PAGE_SIZE;
+        Set<String> members = stringRedisTemplate.opsForZSet()
+                .reverseRange(BLOG_HOT_KEY, start, start + MAX_PAGE_SIZE - 1);
+        if (members == null || members.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = members.stream().map(Long::valueOf).collect(Collectors.toList());
+        return Result.ok(queryBlogCards(ids));
+    }
+
+    @Override
+    public Result queryHotBlogCursor(String cursor, boolean withCount) {
+        // 1.解析游标：上一页最小的热度，以及上一页中与最小热度相同的条数
+        double max;
+        int offset;
+        try {
+            String[] values = PageCursor.decode(cursor, 2);
+            max = values == null ? Double.POSITIVE_INFINITY : Double.parseDouble(values[0]);
+            offset = values == null ? 0 : Integer.parseInt(values[1]);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("分页游标无效");
+        }
+        // 2.从上一页最小的热度开始取，跳过热度相同且已返回的offset条
+        // ZREVRANGEBYSCORE key max -inf WITHSCORES LIMIT offset count
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(BLOG_HOT_KEY, Double.NEGATIVE_INFINITY, max, offset, MAX_PAGE_SIZE);
+        Long total = withCount ? stringRedisTemplate.opsForZSet().zCard(BLOG_HOT_KEY) : null;
+        if (tuples == null || tuples.isEmpty()) {
+            return Result.ok(CursorResult.of(Collections.emptyList(), null, total));
+        }
+        // 3.计算下一页的游标
+        List<Long> ids = new ArrayList<>(tuples.size());
+        double minScore = max;
+        int os = 0;
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            ids.add(Long.valueOf(tuple.getValue()));
+            double score = tuple.getScore();
+            if (score == minScore) {
+                os++;
+            } else {
+                minScore = score;
+                os = 1;
+            }
+        }
+        // 最小热度与上一页相同，需要累加上一页的offset
+        os = minScore == max ? os + offset : os;
+        String next = tuples.size() < MAX_PAGE_SIZE ? null : PageCursor.encode(minScore, os);
+        return Result.ok(CursorResult.of(queryBlogCards(ids), next, total));
+    }
+
+    @Override
+    public Result queryMyBlogCursor(String cursor, boolean withCount) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return Result.fail("用户未登录");
+        }
+        long lastId;
+        try {
+            String[] values = PageCursor.decode(cursor, 1);
+            lastId = values == null ? 0 : Long.parseLong(values[0]);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("分页游标无效");
+        }
+        // WHERE user_id = ? AND id > ? ORDER BY id LIMIT n
+        List<Blog> blogs = query()
+                .eq("user_id", user.getId())
+                .gt("id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + MAX_PAGE_SIZE)
+                .list();
+        String next = blogs.size() < MAX_PAGE_SIZE ? null : PageCursor.encode(blogs.get(blogs.size() - 1).getId());
+        Long total = withCount ? Long.valueOf(query().eq("user_id", user.getId()).count()) : null;
+        return Result.ok(CursorResult.of(blogs, next, total));
+    }
+
+    /**
+     * 按ids的顺序查询博文卡片，并设置点赞数和点赞状态
+     */
+    private List<Blog> queryBlogCards(List<Long> ids) {
+        // 2.批量查询博文卡片（包含作者昵称和头像），未命中的从数据库加载后写入缓存
+        Map<Long, Blog> cards = cacheClient.queryBatch(CACHE_BLOG_CARD_KEY, ids, Blog.class,
+                this::loadBlogCards, CACHE_BLOG_CARD_TTL, TimeUnit.MINUTES);
+        // 3.按排行顺序组装，缓存中的对象是共享的，复制后再设置点赞数和点赞状态
+        List<Blog> blogs = new ArrayList<>(cards.size());
+        for (Long id : ids) {
+            Blog card = cards.get(id);
+            if (card != null) {
+                blogs.add(BeanUtil.copyProperties(card, Blog.class));
+            }
+        }
+        fillBlogLiked(blogs);
+        return blogs;
+    }
+
+    /**
+     * 从数据库加载博文卡片，批量补充作者信息
+     */
+    private Map<Long, Blog> loadBlogCards(Collection<Long> ids) {
+        List<Blog> blogs = listByIds(ids);
+        fillBlogUser(blogs);
+        return blogs.stream().collect(Collectors.toMap(Blog::getId, Function.identity()));
+    }
+
+    /**
+     * 定时把点赞数增量合并后批量写回数据库，同一时间只有一个节点执行
+     */
+    @Scheduled(fixedDelayString = "${hmdp.blog.like-flush-interval-millis:5000}")
+    public void flushLikedDeltas() {
+        ILock lock = lockFactory.getLock(LOCK_BLOG_LIKE_FLUSH_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // 1.把增量改名为待写回，之后的点赞写入新的增量，互不影响
+            // 上次写回失败留下的待写回数据先处理
+            if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_LIKED_FLUSHING_KEY))) {
+                if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_LIKED_DELTA_KEY))) {
+                    return;
+                }
+                stringRedisTemplate.rename(BLOG_LIKED_DELTA_KEY, BLOG_LIKED_FLUSHING_KEY);
+            }
+            // 2.读取待写回的增量，跳过为0的
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(BLOG_LIKED_FLUSHING_KEY);
+            Map<Long, Long> deltas = new LinkedHashMap<>(entries.size());
+            entries.forEach((id, delta) -> {
+                long value = Long.parseLong(delta.toString());
+                if (value != 0) {
+                    deltas.put(Long.valueOf(id.toString()), value);
+                }
+            });
+            // 3.分批执行 UPDATE ... CASE id WHEN ... END
+            Map<Long, Long> batch = new LinkedHashMap<>();
+            for (Map.Entry<Long, Long> entry : deltas.entrySet()) {
+                batch.put(entry.getKey(), entry.getValue());
+                if (batch.size() >= LIKE_FLUSH_BATCH_SIZE) {
+                    flushLikedBatch(batch);
+                    batch = new LinkedHashMap<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                flushLikedBatch(batch);
+            }
+            // 4.写回成功，删除待写回数据（包括跳过的为0的增量）
+            stringRedisTemplate.delete(BLOG_LIKED_FLUSHING_KEY);
+            log.debug("点赞数写回数据库完成，博文数量：{}", deltas.size());
+        } catch (Exception e) {
+            log.error("点赞数写回数据库失败，稍后重试", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写回一批增量，提交后立即从待写回数据中删除这一批，后续批次失败重试时不会重复累加
+     */
+    private void flushLikedBatch(Map<Long, Long> batch) {
+        getBaseMapper().incrLikedBatch(batch);
+        stringRedisTemplate.opsForHash().delete(BLOG_LIKED_FLUSHING_KEY,
+                batch.keySet().stream().map(String::valueOf).toArray());
+    }
+
+    /**
+     * 从数据库加载点赞排行和热度排行，按id游标分批，每批一次pipeline
+     */
+    public void loadBlogRank() {
+        long lastId = 0;
+        while (true) {
+            List<Blog> blogs = query()
+                    .select("id", "liked", "create_time")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + LIKE_FLUSH_BATCH_SIZE)
+                    .list();
+            if (blogs.isEmpty()) {
+                return;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Blog blog : blogs) {
+                    String blogId = blog.getId().toString();
+                    int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                    LocalDateTime createTime = blog.getCreateTime() == null ? LocalDateTime.now() : blog.getCreateTime();
+                    long createMillis = createTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                    conn.zAdd(BLOG_LIKED_RANK_KEY, liked, blogId);
+                    conn.zAdd(BLOG_HOT_KEY, hotScore(liked, createMillis), blogId);
+                }
+                return null;
+            });
+            lastId = blogs.get(blogs.size() - 1).getId();
+        }
+    }
+
+    /**
+     * 补充最新的点赞数，以及当前登录用户是否点赞过（未登录时不处理）
+     */
+    private void fillBlogLiked(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        UserDTO user = UserHolder.getUser();
+        String userId = user == null ? null : user.getId().toString();
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.zScore(BLOG_LIKED_RANK_KEY, blog.getId().toString());
+                if (userId != null) {
+                    conn.zScore(BLOG_LIKED_KEY + blog.getId(), userId);
+                }
+            }
+            return null;
+        });
+        int step = userId == null ? 1 : 2;
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            Object liked = scores.get(i * step);
+            if (liked != null) {
+                blog.setLiked(((Number) liked).intValue());
+            }
+            if (userId != null) {
+                blog.setIsLike(scores.get(i * step + 1) != null);
+            }
+        }
+    }
+
+    private void fillBlogUser(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Map<Long, UserDTO> users = userService.queryUserDTOs(
+                blogs.stream().map(Blog::getUserId).collect(Collectors.toSet()));
+        blogs.forEach(blog -> {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        });
+    }
 }
@@ -1,11 +1,28 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.BooleanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.UserHolder;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FOLLOW_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +34,80 @@ import org.springframework.stereotype.Service;
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IUserService userService;
+
+    @Override
+    public Result follow(Long followUserId, Boolean isFollow) {
+        //1.获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        String key = FOLLOW_KEY + userId;
+        //2.判断是关注还是取关
+        if (BooleanUtil.isTrue(isFollow)) {
+            //3.关注，新增数据，并放入redis的set集合
+            Follow follow = new Follow();
+            follow.setUserId(userId);
+            follow.setFollowUserId(followUserId);
+            try {
+                save(follow);
+            } catch (DuplicateKeyException e) {
+                // 重复关注：(user_id, follow_user_id)唯一，已经关注过，不再新增
+            }
+            stringRedisTemplate.opsForSet().add(key, followUserId.toString());
+        } else {
+            //4.取关，删除数据，并从redis的set集合中移除
+            boolean removed = remove(new QueryWrapper<Follow>()
+                    .eq("user_id", userId).eq("follow_user_id", followUserId));
+            if (removed) {
+                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+            }
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        Integer count = query().eq("user_id", userId).eq("follow_user_id", followUserId).count();
+        return Result.ok(count > 0);
+    }
+
+    @Override
+    public Result followCommons(Long id) {
+        //1.求交集
+        Long userId = UserHolder.getUser().getId();
+        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(FOLLOW_KEY + userId, FOLLOW_KEY + id);
+        if (intersect == null || intersect.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        //2.批量查询用户
+        List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
+        return Result.ok(new ArrayList<>(userService.queryUserDTOs(ids).values()));
+    }
+
+    @Override
+    public long countFollowers(Long userId) {
+        return query().eq("follow_user_id", userId).count();
+    }
+
+    @Override
+    public void forEachFollowerBatch(Long userId, int batchSize, Consumer<List<Long>> consumer) {
+        long lastId = 0;
+        while (true) {
+            List<Follow> follows = query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", userId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + batchSize)
+                    .list();
+            if (follows.isEmpty()) {
+                return;
+            }
+            consumer.accept(follows.stream().map(Follow::getUserId).collect(Collectors.toList()));
+            lastId = follows.get(follows.size() - 1).getId();
+        }
+    }
 }
@@ -3,31 +3,61 @@ package com.hmdp.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.config.ExecutorRegistry;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheBloomFilter;
+import com.hmdp.utils.CacheChangeStream;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.PageCursor;
+import com.hmdp.utils.ShopSearchIndex;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
 import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static cn.hutool.http.ContentType.JSON;
 import static com.hmdp.utils.RedisConstants.*;
+import static com.hmdp.utils.SystemConstants.*;
 
 /**
  * <p>
@@ -40,174 +70,162 @@ import static com.hmdp.utils.RedisConstants.*;
 @Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
+    /**
+     * 搜索结果游标的标记，与按id定位的数据库游标区分
+     */
+    private static final String SEARCH_CURSOR_TAG = "s";
+
     @Resource
     private CacheClient cacheClient;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheBloomFilter bloomFilter;
+    @Resource
+    private CacheChangeStream cacheChangeStream;
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+    @Resource
+    private ExecutorRegistry executorRegistry;
 
-    @Override
-    public Result queryById(Long id) {
-        // 解决缓存穿透
-        Shop shop = cacheClient
-                .queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-
-        // 互斥锁解决缓存击穿
-        // Shop shop = cacheClient
-        //         .queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-
-        // 逻辑过期解决缓存击穿
-        // Shop shop = cacheClient
-        //         .queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS);
-
-        if (shop == null) {
-            return Result.fail("店铺不存在！");
-        }
-        // 7.返回
-        return Result.ok(shop);
-    }
-
-    //定义线程池
-    private final ExecutorService CACHE_REBUILD_POOL = Executors.newFixedThreadPool(10);
-
-    //逻辑过期解决缓存击穿
-    public Shop queryWithLogicalExpire(Long id) {
-        //1.首先从redis中查询数据
-        String s = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        //2.判断数据是否存在
-        if (StrUtil.isBlank(s)) {
-            return null;
-        }
-
-        //4.命中，需要先把json反序列化成对象
-        RedisData redisData = JSONUtil.toBean(s, RedisData.class);
-        JSONObject data = (JSONObject) redisData.getData();
-        Shop shop = BeanUtil.toBean(data, Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        //5.判断是逻辑时间否为过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            //5.1.未过期，直接返回店铺信息
-            return shop;
-        }
+    /**
+     * 搜索索引的全量重建和增量更新都要查询数据库，不占用定时任务和redis消息监听的线程
+     */
+    private ExecutorService searchRebuildExecutor;
+    private ExecutorService searchRefreshExecutor;
 
-        //5.2.过期，需要重建缓存
-        //6.缓存重构
-        //6.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        Boolean idLock = tryLock(lockKey);
-        //6.2判断是否获取成功
-        if (idLock) {
-            //6.3成功，开启独立线程，实现缓存重构
-            CACHE_REBUILD_POOL.submit(() -> {
+    /**
+     * 店铺缓存的读取策略：pass-through 缓存空值；mutex 互斥锁重建；logical-expire 逻辑过期
+     */
+    @Value("${hmdp.cache.shop-strategy:pass-through}")
+    private String shopCacheStrategy;
+
+    @PostConstruct
+    private void init() {
+        // 注册店铺id的布隆过滤器，拦截不存在的店铺id
+        bloomFilter.register(CACHE_SHOP_KEY, BLOOM_FPP,
+                () -> listObjs(new QueryWrapper<Shop>().select("id"), id -> Long.valueOf(id.toString())));
+        searchRebuildExecutor = executorRegistry.create("search-rebuild", 1, 1, ExecutorRegistry.Rejection.ABORT);
+        searchRefreshExecutor = executorRegistry.create("search-refresh", 1, 1000, ExecutorRegistry.Rejection.ABORT);
+        // 店铺缓存被删除（数据变更，事务提交后）时，从数据库重新加载该店铺的搜索索引
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String key = new String(message.getBody(), StandardCharsets.UTF_8);
+            String id = key.startsWith(CACHE_SHOP_KEY) ? key.substring(CACHE_SHOP_KEY.length()) : "";
+            if (!id.isEmpty() && StrUtil.isNumeric(id)) {
                 try {
-                    //重建缓存
-                    this.saveShop2Redis(id, 30L);
-                } finally {
-                    //释放锁
-                    unLock(lockKey);
+                    searchRefreshExecutor.execute(() -> refreshSearchIndex(Long.valueOf(id)));
+                } catch (RejectedExecutionException e) {
+                    log.warn("搜索索引增量更新队列已满，等待全量重建，id：{}", id);
                 }
-            });
-        } else {
-            //6.4获取互斥锁失败，返回过期的店铺信息
-            return shop;
-        }
-
-
+            }
+        }, new ChannelTopic(CACHE_INVALIDATE_TOPIC));
+    }
 
-        //3.不存在，根据id查询数据库
-        Shop byId = getById(id);
-        //4.存在，写入redis
-        if (byId != null) {
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(byId), 30L, TimeUnit.MINUTES);
-            return byId;
+    /**
+     * 定时全量重建店铺搜索索引，兜底增量更新遗漏的变更；重建在独立的线程中执行，积压时跳过本次
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.search.rebuild-interval-millis:3600000}")
+    public void rebuildSearchIndex() {
+        try {
+            searchRebuildExecutor.execute(this::doRebuildSearchIndex);
+        } catch (RejectedExecutionException e) {
+            log.debug("店铺搜索索引重建积压，跳过本次");
         }
-
-        //缓存穿透--将空值写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, "", 2L, TimeUnit.MINUTES);
-
-        //5.不存在，返回错误信息
-        return null;
     }
 
-    //互斥锁解决缓存击穿
-    public Shop queryWithMutex(Long id) {
-        //1.首先从redis中查询数据
-        String s = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        //2.判断数据是否存在
-        if (StrUtil.isNotBlank(s)) {
-            Shop shop = JSONUtil.toBean(s, Shop.class);
-            return shop;
-        }
-        //判断字符串是否是空值
-        if (s != null) {  //当字符串不是null时，就是空值""
-            //返回一个错误信息
-            return null;
+    /**
+     * 按id游标流式加载全部店铺，构建新索引后整体替换
+     */
+    private void doRebuildSearchIndex() {
+        try {
+            shopSearchIndex.rebuild(lastId -> query()
+                    .select("id", "name", "area", "address", "score", "sold")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + SHOP_SEARCH_LOAD_BATCH_SIZE)
+                    .list());
+        } catch (Exception e) {
+            log.error("店铺搜索索引构建失败", e);
         }
+    }
 
-        //@1.实现缓存重建
-        //@2.获取互斥锁
-        String lockKey = "lock:shop:" + id;
-        Shop shop = null;
+    private void refreshSearchIndex(Long id) {
         try {
-            Boolean flag = tryLock(lockKey);
-            //@4.失败则休眠并重试
-            if (!flag) {
-                Thread.sleep(50);
-                queryWithPassThrough(id);
-
-            }
-
-            shop = getById(id);
-            //@3.判断是否获取成功
-            //不存在，返回错误信息
+            Shop shop = getById(id);
             if (shop == null) {
-                stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, "", 2L, TimeUnit.MINUTES);
-                return null;
+                shopSearchIndex.remove(id);
+            } else {
+                shopSearchIndex.put(shop);
             }
-            //4.存在，写入redis
-
-
-            //缓存穿透--将值写入redis
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(shop), 30L, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            //释放互斥锁
-            unLock(lockKey);
+        } catch (Exception e) {
+            log.warn("更新店铺搜索索引失败，id：{}", id, e);
         }
-        return shop;
     }
 
-    public Shop queryWithPassThrough(Long id) {
-        //1.首先从redis中查询数据
-        String s = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        //2.判断数据是否存在
-        if (StrUtil.isNotBlank(s)) {
-            Shop shop = JSONUtil.toBean(s, Shop.class);
-            return shop;
-        }
-        //判断字符串是否是空值
-        if (s != null) {  //当字符串不是null时，就是空值""
-            //返回一个错误信息
-            return null;
+    @Override
+    public Result queryById(Long id) {
+        Shop shop;
+        switch (shopCacheStrategy) {
+            case "mutex":
+                // 互斥锁解决缓存击穿
+                shop = cacheClient
+                        .queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                break;
+            case "logical-expire":
+                // 逻辑过期解决缓存击穿，需要提前预热
+                shop = cacheClient
+                        .queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                break;
+            default:
+                // 解决缓存穿透
+                shop = cacheClient
+                        .queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         }
 
-
-        //3.不存在，根据id查询数据库
-        Shop byId = getById(id);
-        //4.存在，写入redis
-        if (byId != null) {
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(byId), 30L, TimeUnit.MINUTES);
-            return byId;
+        if (shop == null) {
+            return Result.fail("店铺不存在！");
         }
+        // 7.返回
+        return Result.ok(shop);
+    }
 
-        //缓存穿透--将空值写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, "", 2L, TimeUnit.MINUTES);
-
-
-        //5.不存在，返回错误信息
-        return null;
+    @Override
+    public CompletableFuture<Result> queryByIdAsync(Long id) {
+        if (!"pass-through".equals(shopCacheStrategy)) {
+            // 互斥锁和逻辑过期的重建流程依赖分布式锁，仍然同步执行
+            return CompletableFuture.completedFuture(queryById(id));
+        }
+        return cacheClient
+                .queryWithPassThroughAsync(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES)
+                .thenApply(shop -> shop == null ? Result.fail("店铺不存在！") : Result.ok(shop));
     }
 
+    /**
+     * 新增商铺信息
+     *
+     * @param shop 商铺数据
+     * @return 商铺id
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 加入布隆过滤器
+        bloomFilter.put(CACHE_SHOP_KEY, shop.getId());
+        // 加入搜索索引
+        shopSearchIndex.put(shop);
+        // 清理之前缓存的空值
+        cacheChangeStream.publish(CacheChangeStream.TABLE_SHOP, shop.getId());
+        // 写入GEO索引
+        if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+            stringRedisTemplate.opsForGeo()
+                    .add(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), shop.getId().toString());
+        }
+        // 返回店铺id
+        return Result.ok(shop.getId());
+    }
 
     /**
      * 修改商铺信息
@@ -219,38 +237,247 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Transactional
     public Result update(Shop shop) {
         if (shop.getId() == null) {
-            Result.ok("店铺id不能为空");
+            return Result.fail("店铺id不能为空");
         }
+        //修改了类型或坐标时，需要先查出旧数据用于更新GEO索引
+        boolean geoChanged = shop.getTypeId() != null || shop.getX() != null || shop.getY() != null;
+        Shop old = geoChanged ? getById(shop.getId()) : null;
         //更新数据库
         updateById(shop);
-        //删除缓存-redis
-        log.info("删除缓存--redis店铺信息（修改店铺信息）");
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        //事务提交后删除缓存-redis，提交前删除会被并发读用未提交前的旧数据写回
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                log.info("删除缓存--redis店铺信息（修改店铺信息）");
+                cacheClient.evict(CACHE_SHOP_KEY + shop.getId());
+            }
+        });
+        //发布变更事件（提交后发布），延迟后再删除一次，清理并发读写回的旧数据
+        cacheChangeStream.publish(CacheChangeStream.TABLE_SHOP, shop.getId());
+        //更新GEO索引
+        if (old != null) {
+            updateShopGeo(old, shop);
+        }
         return Result.ok();
     }
 
+    private void updateShopGeo(Shop old, Shop shop) {
+        String member = old.getId().toString();
+        Long typeId = shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId();
+        Double x = shop.getX() != null ? shop.getX() : old.getX();
+        Double y = shop.getY() != null ? shop.getY() : old.getY();
+        //类型变了，从旧类型的GEO中移除
+        if (old.getTypeId() != null && !old.getTypeId().equals(typeId)) {
+            stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + old.getTypeId(), member);
+        }
+        if (typeId != null && x != null && y != null) {
+            stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + typeId, new Point(x, y), member);
+        }
+    }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        //1.判断是否需要根据坐标查询
+        if (x == null || y == null) {
+            //不需要坐标查询，按数据库查询，只返回当前页，不查询总数
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, DEFAULT_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        //2.计算分页参数
+        int from = (current - 1) * DEFAULT_PAGE_SIZE;
+        return Result.ok(queryShopByGeo(typeId, x, y, from));
+    }
 
-    //获取锁
-    public Boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10L, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    @Override
+    public Result queryShopByTypeCursor(Integer typeId, String cursor, Double x, Double y, boolean withCount) {
+        try {
+            String[] values = PageCursor.decode(cursor, 1);
+            //1.按距离排序：GEOSEARCH只能从最近的开始取，游标中是已返回的条数
+            if (x != null && y != null) {
+                int from = values == null ? 0 : Integer.parseInt(values[0]);
+                List<Shop> shops = queryShopByGeo(typeId, x, y, from);
+                String next = shops.size() < DEFAULT_PAGE_SIZE ? null : PageCursor.encode(from + DEFAULT_PAGE_SIZE);
+                return Result.ok(CursorResult.of(shops, next, null));
+            }
+            //2.按id排序：WHERE type_id = ? AND id > ? ORDER BY id LIMIT n
+            long lastId = values == null ? 0 : Long.parseLong(values[0]);
+            List<Shop> shops = query()
+                    .eq("type_id", typeId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + DEFAULT_PAGE_SIZE)
+                    .list();
+            String next = shops.size() < DEFAULT_PAGE_SIZE ? null : PageCursor.encode(shops.get(shops.size() - 1).getId());
+            Long total = withCount ? Long.valueOf(query().eq("type_id", typeId).count()) : null;
+            return Result.ok(CursorResult.of(shops, next, total));
+        } catch (IllegalArgumentException e) {
+            return Result.fail("分页游标无效");
+        }
     }
 
-    //释放锁
-    public Boolean unLock(String key) {
-        return stringRedisTemplate.delete(key);
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        //1.有关键字且索引已构建，通过搜索索引查询，按相关度排序
+        if (StrUtil.isNotBlank(name) && shopSearchIndex.isReady()) {
+            List<Long> ids = shopSearchIndex.search(name, (current - 1) * MAX_PAGE_SIZE, MAX_PAGE_SIZE);
+            return Result.ok(queryShopsByIds(ids));
+        }
+        //2.否则查询数据库，不查询总数
+        Page<Shop> page = query()
+                .like(StrUtil.isNotBlank(name), "name", name)
+                .page(new Page<>(current, MAX_PAGE_SIZE, false));
+        return Result.ok(page.getRecords());
+    }
+
+    @Override
+    public Result queryShopByNameCursor(String name, String cursor, boolean withCount) {
+        try {
+            //1.通过搜索索引查询：结果按相关度排序，没有可以定位的排序键，游标中是已返回的条数
+            if (StrUtil.isNotBlank(name) && shopSearchIndex.isReady()) {
+                String[] values = PageCursor.decode(cursor, 2);
+                if (values != null && !SEARCH_CURSOR_TAG.equals(values[0])) {
+                    throw new IllegalArgumentException("游标格式错误：" + cursor);
+                }
+                int from = values == null ? 0 : Integer.parseInt(values[1]);
+                List<Long> ids = shopSearchIndex.search(name, from, MAX_PAGE_SIZE);
+                String next = ids.size() < MAX_PAGE_SIZE ? null : PageCursor.encode(SEARCH_CURSOR_TAG, from + MAX_PAGE_SIZE);
+                return Result.ok(CursorResult.of(queryShopsByIds(ids), next, null));
+            }
+            //2.查询数据库，按id排序
+            String[] values = PageCursor.decode(cursor, 1);
+            long lastId = values == null ? 0 : Long.parseLong(values[0]);
+            List<Shop> shops = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + MAX_PAGE_SIZE)
+                    .list();
+            String next = shops.size() < MAX_PAGE_SIZE ? null : PageCursor.encode(shops.get(shops.size() - 1).getId());
+            Long total = withCount ? Long.valueOf(query().like(StrUtil.isNotBlank(name), "name", name).count()) : null;
+            return Result.ok(CursorResult.of(shops, next, total));
+        } catch (IllegalArgumentException e) {
+            return Result.fail("分页游标无效");
+        }
+    }
+
+    @Override
+    public Result suggestShopName(String prefix) {
+        if (StrUtil.isBlank(prefix) || !shopSearchIndex.isReady()) {
+            return Result.ok(Collections.emptyList());
+        }
+        return Result.ok(shopSearchIndex.suggest(prefix, SHOP_SUGGEST_SIZE));
+    }
+
+    /**
+     * 通过缓存批量查询店铺，保持ids的顺序
+     */
+    private List<Shop> queryShopsByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Shop> shopMap = cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> shops = new ArrayList<>(shopMap.size());
+        for (Long id : ids) {
+            Shop shop = shopMap.get(id);
+            if (shop != null) {
+                shops.add(shop);
+            }
+        }
+        return shops;
+    }
+
+    /**
+     * 按距离查询附近的店铺，返回第 from 条开始的一页
+     */
+    private List<Shop> queryShopByGeo(Integer typeId, Double x, Double y, int from) {
+        int end = from + DEFAULT_PAGE_SIZE;
+        //3.查询redis，按照距离排序、分页。结果：shopId、distance
+        //GEOSEARCH key FROMLONLAT x y BYRADIUS 5000 m ASC WITHDIST COUNT end
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + typeId,
+                GeoReference.fromCoordinate(x, y),
+                new Distance(SHOP_GEO_RADIUS),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(end)
+        );
+        if (results == null) {
+            return Collections.emptyList();
+        }
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
+        if (list.size() <= from) {
+            //没有下一页了，结束
+            return Collections.emptyList();
+        }
+        //4.截取 from ~ end 的部分，保持距离顺序
+        Map<Long, Double> distanceMap = new LinkedHashMap<>(list.size() - from);
+        list.stream().skip(from).forEach(result -> distanceMap.put(
+                Long.valueOf(result.getContent().getName()), result.getDistance().getValue()));
+        //5.通过缓存批量查询店铺
+        Map<Long, Shop> shopMap = cacheClient.queryBatch(CACHE_SHOP_KEY, distanceMap.keySet(), Shop.class,
+                ids -> listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        //6.按距离顺序组装结果，缓存中的对象是共享的，复制后再设置距离
+        List<Shop> shops = new ArrayList<>(shopMap.size());
+        distanceMap.forEach((id, distance) -> {
+            Shop cached = shopMap.get(id);
+            if (cached == null) {
+                return;
+            }
+            Shop shop = BeanUtil.copyProperties(cached, Shop.class);
+            shop.setDistance(distance);
+            shops.add(shop);
+        });
+        //7.返回
+        return shops;
+    }
+
+    @Override
+    public int loadShopGeo() {
+        long begin = System.currentTimeMillis();
+        long lastId = 0;
+        int total = 0;
+        while (true) {
+            //1.按id游标分批查询，避免深分页
+            List<Shop> shops = query()
+                    .select("id", "type_id", "x", "y")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + SHOP_GEO_LOAD_BATCH_SIZE)
+                    .list();
+            if (shops.isEmpty()) {
+                break;
+            }
+            //2.按类型分组
+            Map<Long, Map<String, Point>> typeMap = new HashMap<>();
+            for (Shop shop : shops) {
+                if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                    continue;
+                }
+                typeMap.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                        .put(shop.getId().toString(), new Point(shop.getX(), shop.getY()));
+                total++;
+            }
+            //3.每个类型一条GEOADD，整批通过pipeline写入
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                typeMap.forEach((typeId, members) -> conn.geoAdd(SHOP_GEO_KEY + typeId, members));
+                return null;
+            });
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        log.info("店铺GEO数据导入完成，数量：{}，耗时：{}ms", total, System.currentTimeMillis() - begin);
+        return total;
     }
 
 
     public void saveShop2Redis(Long id, Long expireSeconds) {
         //1.查询店铺数据
         Shop shop = getById(id);
-        //2.封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        //3.写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        //2.封装逻辑过期时间，写入redis
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
     }
 
 
@@ -1,46 +1,132 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import org.springframework.beans.factory.annotation.Autowired;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_TOPIC;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
+
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 店铺类型很少变化，整个列表以不可变快照的形式保存在内存中，请求不访问redis也不做序列化；
+ * 收到缓存失效广播时立即刷新，另外定时检查redis中的版本号，防止错过广播
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
-    @Autowired
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+    @Resource
+    private ObjectMapper objectMapper;
+
+    private volatile ShopTypeSnapshot snapshot;
+
+    @PostConstruct
+    private void init() {
+        // 店铺类型缓存被删除（数据变更）时刷新快照
+        listenerContainer.addMessageListener((message, pattern) -> {
+            if (CACHE_SHOP_TYPE_KEY.equals(new String(message.getBody(), StandardCharsets.UTF_8))) {
+                refreshQuietly();
+            }
+        }, new ChannelTopic(CACHE_INVALIDATE_TOPIC));
+    }
+
     @Override
     public Result ListType() {
-        String s = stringRedisTemplate.opsForValue().get("cache:shop:type");
-        if (s != null && !s.isEmpty()) {
-            try {
-                return Result.ok(JSONUtil.toBean(s, List.class));
-            } catch (Exception e) {
-                // 如果解析失败，则从数据库重新加载数据
-                stringRedisTemplate.delete("cache:shop:type");
+        return Result.ok(getSnapshot().getTypes());
+    }
+
+    @Override
+    public ShopTypeSnapshot getSnapshot() {
+        ShopTypeSnapshot s = snapshot;
+        if (s == null) {
+            synchronized (this) {
+                s = snapshot;
+                if (s == null) {
+                    s = load(currentVersion());
+                    snapshot = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * 定时检查版本号，版本号变化时重新加载
+     */
+    @Scheduled(initialDelay = 5000, fixedDelayString = "${hmdp.shop-type.version-check-interval-millis:5000}")
+    public void checkVersion() {
+        ShopTypeSnapshot s = snapshot;
+        if (s != null && s.getVersion() != currentVersion()) {
+            refreshQuietly();
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            synchronized (this) {
+                snapshot = load(currentVersion());
             }
+            log.info("店铺类型快照已刷新，版本：{}", snapshot.getVersion());
+        } catch (Exception e) {
+            // 刷新失败继续使用旧快照，下次检查版本号时重试
+            log.warn("店铺类型快照刷新失败", e);
+        }
+    }
+
+    private long currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    /**
+     * 先读redis中的列表缓存，没有或解析失败时查询数据库并写回
+     */
+    private ShopTypeSnapshot load(long version) {
+        List<ShopType> types = null;
+        try {
+            types = cacheClient.getList(CACHE_SHOP_TYPE_KEY, ShopType.class);
+        } catch (Exception e) {
+            // 如果解析失败，则从数据库重新加载数据
+            log.warn("店铺类型缓存解析失败，重新加载", e);
+        }
+        if (types == null) {
+            types = query().orderByAsc("sort").list();
+            cacheClient.setList(CACHE_SHOP_TYPE_KEY, types);
         }
-        List<ShopType> sort = query().orderByAsc("sort").list();
-        if (sort == null){
-            return Result.ok("数据不存在");
+        try {
+            return new ShopTypeSnapshot(version, types, objectMapper.writeValueAsBytes(Result.ok(types)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("店铺类型序列化失败", e);
         }
-        stringRedisTemplate.opsForValue().set("cache:shop:type", JSONUtil.toJsonStr(sort));
-        return Result.ok(sort);
     }
-}
\ No newline at end of file
+}
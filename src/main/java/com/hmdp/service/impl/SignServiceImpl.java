@@ -0,0 +1,234 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import com.hmdp.service.ISignService;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.RedisLockFactory;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * <p>
+ *  服务实现类
+ * </p>
+ * 签到记录在redis的bitmap中：sign:{userId}:{yyyyMM}，第n位表示n+1号是否签到；
+ * 每天签到或补签过的用户记在 sign:dirty:{yyyyMMdd} 中，夜间把这些用户当月的位图归档到tb_sign
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+@Slf4j
+@Service
+public class SignServiceImpl extends ServiceImpl<SignMapper, Sign> implements ISignService {
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern(":yyyyMM");
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    /**
+     * 计算连续签到时最多向前查看的月数
+     */
+    private static final int MAX_STREAK_MONTHS = 12;
+    /**
+     * 归档时每批处理的用户数
+     */
+    private static final int ARCHIVE_BATCH_SIZE = 500;
+    /**
+     * 归档时向前检查的天数，之前归档失败的会在下次补上
+     */
+    private static final int ARCHIVE_LOOKBACK_DAYS = 3;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisLockFactory lockFactory;
+
+    @Override
+    public Result sign() {
+        // 1.获取当前登录用户
+        Long userId = UserHolder.getUser().getId();
+        // 2.获取日期
+        LocalDate today = LocalDate.now();
+        // 3.写入redis SETBIT key offset 1
+        return doSign(userId, today, today) ? Result.ok() : Result.fail("今天已经签到过了！");
+    }
+
+    @Override
+    public Result makeUpSign(Integer day) {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        // 只能补签本月今天之前的日期
+        if (day == null || day < 1 || day >= today.getDayOfMonth()) {
+            return Result.fail("只能补签本月今天之前的日期！");
+        }
+        return doSign(userId, today.withDayOfMonth(day), today) ? Result.ok() : Result.fail("当天已经签到过了！");
+    }
+
+    /**
+     * 签到，并把用户记入今天的待归档集合
+     * @return false代表之前已经签到过
+     */
+    private boolean doSign(Long userId, LocalDate date, LocalDate today) {
+        String key = signKey(userId, YearMonth.from(date));
+        Boolean signed = stringRedisTemplate.opsForValue().setBit(key, date.getDayOfMonth() - 1, true);
+        if (BooleanUtil.isTrue(signed)) {
+            return false;
+        }
+        stringRedisTemplate.expire(key, USER_SIGN_TTL, TimeUnit.DAYS);
+        String dirtyKey = SIGN_DIRTY_KEY + today.format(DAY_FORMATTER);
+        stringRedisTemplate.opsForSet().add(dirtyKey, userId.toString());
+        stringRedisTemplate.expire(dirtyKey, ARCHIVE_LOOKBACK_DAYS + 1, TimeUnit.DAYS);
+        return true;
+    }
+
+    @Override
+    public Result signCount() {
+        // 1.获取当前登录用户
+        Long userId = UserHolder.getUser().getId();
+        // 2.获取日期
+        LocalDate today = LocalDate.now();
+        YearMonth month = YearMonth.from(today);
+        int dayOfMonth = today.getDayOfMonth();
+        // 3.从今天开始往前数，本月签满了就继续数上个月
+        int count = 0;
+        for (int i = 0; i < MAX_STREAK_MONTHS; i++) {
+            int streak = countTrailingSigns(signKey(userId, month), dayOfMonth);
+            count += streak;
+            if (streak < dayOfMonth) {
+                break;
+            }
+            month = month.minusMonths(1);
+            dayOfMonth = month.lengthOfMonth();
+        }
+        return Result.ok(count);
+    }
+
+    /**
+     * 取出前days位，从最后一位往前数连续的1
+     */
+    private int countTrailingSigns(String key, int days) {
+        // BITFIELD key GET u[days] 0
+        List<Long> result = stringRedisTemplate.opsForValue().bitField(key,
+                BitFieldSubCommands.create().get(BitFieldSubCommands.BitFieldType.unsigned(days)).valueAt(0));
+        if (result == null || result.isEmpty() || result.get(0) == null) {
+            return 0;
+        }
+        long num = result.get(0);
+        // 取反后，末尾连续的0就是连续签到的天数
+        return Long.numberOfTrailingZeros(~num);
+    }
+
+    @Override
+    public Result signMonthCount() {
+        Long userId = UserHolder.getUser().getId();
+        String key = signKey(userId, YearMonth.now());
+        // BITCOUNT key
+        Long count = stringRedisTemplate.execute(
+                (RedisCallback<Long>) connection -> ((StringRedisConnection) connection).bitCount(key));
+        return Result.ok(count == null ? 0 : count);
+    }
+
+    /**
+     * 每天凌晨把前几天签到过的用户的当月位图归档到数据库，每个用户每月一行
+     */
+    @Scheduled(cron = "${hmdp.sign.archive-cron:0 10 0 * * ?}")
+    public void archive() {
+        ILock lock = lockFactory.getLock(LOCK_SIGN_ARCHIVE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            LocalDate today = LocalDate.now();
+            for (int i = ARCHIVE_LOOKBACK_DAYS; i >= 1; i--) {
+                archiveDay(today.minusDays(i));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void archiveDay(LocalDate day) {
+        String dirtyKey = SIGN_DIRTY_KEY + day.format(DAY_FORMATTER);
+        if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(dirtyKey))) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        YearMonth month = YearMonth.from(day);
+        int total = 0;
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet()
+                .scan(dirtyKey, ScanOptions.scanOptions().count(ARCHIVE_BATCH_SIZE).build())) {
+            List<Long> userIds = new ArrayList<>(ARCHIVE_BATCH_SIZE);
+            while (cursor.hasNext()) {
+                userIds.add(Long.valueOf(cursor.next()));
+                if (userIds.size() >= ARCHIVE_BATCH_SIZE) {
+                    total += archiveBatch(userIds, month);
+                    userIds.clear();
+                }
+            }
+            if (!userIds.isEmpty()) {
+                total += archiveBatch(userIds, month);
+            }
+            // 全部归档成功，删除待归档集合
+            stringRedisTemplate.delete(dirtyKey);
+            log.info("签到归档完成，日期：{}，用户数：{}，耗时：{}ms", day, total, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("签到归档失败，日期：{}", day, e);
+        }
+    }
+
+    private int archiveBatch(List<Long> userIds, YearMonth month) {
+        // 1.一次pipeline取出这批用户当月的位图 BITFIELD key GET u31 0
+        BitFieldSubCommands command = BitFieldSubCommands.create()
+                .get(BitFieldSubCommands.BitFieldType.unsigned(31)).valueAt(0);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long userId : userIds) {
+                conn.bitfield(signKey(userId, month), command);
+            }
+            return null;
+        });
+        // 2.每个用户一行，批量写入
+        LocalDate firstDay = month.atDay(1);
+        List<Sign> signs = new ArrayList<>(userIds.size());
+        for (int i = 0; i < userIds.size(); i++) {
+            List<?> values = (List<?>) results.get(i);
+            if (values == null || values.isEmpty() || values.get(0) == null) {
+                continue;
+            }
+            signs.add(new Sign()
+                    .setUserId(userIds.get(i))
+                    .setYear(month.getYear())
+                    .setMonth(month.getMonthValue())
+                    .setDate(firstDay)
+                    .setSignBits(((Number) values.get(0)).longValue()));
+        }
+        if (!signs.isEmpty()) {
+            getBaseMapper().upsertBatch(signs);
+        }
+        return signs.size();
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + month.format(MONTH_FORMATTER);
+    }
+}
@@ -1,5 +1,7 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.config.ExecutorRegistry;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.SeckillVoucher;
@@ -9,14 +11,50 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ILock;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisLockFactory;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -26,6 +64,7 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
@@ -33,6 +72,65 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private RedisIdWorker redisIdWorker;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private RedisLockFactory lockFactory;
+    @Resource
+    private ExecutorRegistry executorRegistry;
+    /**
+     * 异步线程中拿不到AopContext，注入自身的代理对象用于开启事务
+     */
+    @Lazy
+    @Autowired
+    private IVoucherOrderService self;
+
+    /**
+     * 秒杀模式：sync 同步下单；async 基于redis判断资格、stream异步落库
+     */
+    @Value("${hmdp.seckill.mode:sync}")
+    private String seckillMode;
+    @Value("${hmdp.seckill.batch-size:100}")
+    private int batchSize;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("lua/seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 订单处理线程，只运行一个循环消费stream的任务，关闭时由ExecutorRegistry等待当前批次处理完
+     */
+    private ExecutorService seckillOrderExecutor;
+
+    private volatile boolean running = true;
+    private String consumerName;
+
+    @PostConstruct
+    private void init() {
+        if (!isAsyncMode()) {
+            return;
+        }
+        consumerName = resolveConsumerName();
+        createStreamGroupIfAbsent();
+        seckillOrderExecutor = executorRegistry.create("seckill-order", 1, 1, ExecutorRegistry.Rejection.ABORT);
+        seckillOrderExecutor.submit(new VoucherOrderHandler());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        // 停止消费循环，线程池由ExecutorRegistry关闭
+        running = false;
+    }
+
+    private boolean isAsyncMode() {
+        return "async".equalsIgnoreCase(seckillMode);
+    }
 
     /**
      * 秒杀优惠券
@@ -42,6 +140,9 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
+        if (isAsyncMode()) {
+            return seckillVoucherAsync(voucherId);
+        }
         //1.查询优惠卷
         SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
         //2.判断秒杀是否开始
@@ -58,8 +159,14 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
 
         //*********细节*********
+        //5.一人一单：按用户加分布式锁，多个节点之间同样生效
         UserDTO user = UserHolder.getUser();
-        synchronized (user.getId().toString().intern()) {
+        ILock lock = lockFactory.getLock(LOCK_ORDER_KEY + user.getId());
+        if (!lock.tryLock()) {
+            // 同一个用户的并发请求，直接失败
+            return Result.fail("不能重复下单");
+        }
+        try {
             //获取代理对象（事务）
             IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
             return proxy.createVoucherOrder(voucherId);
@@ -67,8 +174,173 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             //this表示拿到VoucherOrderServiceImpl这个对象
             //this指非代理对象，没有事务功能的！！！！！！！
             //所以使用动态代理对象创建代理对象
+        } finally {
+            lock.unlock();
+        }
+
+    }
+
+    /**
+     * 异步秒杀：lua脚本在redis中原子判断库存和一人一单，订单写入stream后立即返回订单id
+     */
+    private Result seckillVoucherAsync(Long voucherId) {
+        //1.查询优惠券（走缓存），判断秒杀时间
+        SeckillVoucher voucher = cacheClient.queryWithPassThrough(CACHE_SECKILL_VOUCHER_KEY, voucherId,
+                SeckillVoucher.class, seckillVoucherService::getById, CACHE_SECKILL_VOUCHER_TTL, TimeUnit.MINUTES);
+        if (voucher == null) {
+            return Result.fail("优惠券不存在");
+        }
+        if (voucher.getBeginTime().isAfter(LocalDateTime.now())) {
+            return Result.fail("秒杀尚未开始");
+        }
+        if (voucher.getEndTime().isBefore(LocalDateTime.now())) {
+            return Result.fail("秒杀已结束");
+        }
+        //2.执行lua脚本
+        Long userId = UserHolder.getUser().getId();
+        long orderId = redisIdWorker.nextId("order");
+        int r = executeSeckillScript(voucherId, userId, orderId);
+        if (r == 3) {
+            //2.1.库存还没有加载到redis，从数据库加载后重试一次
+            SeckillVoucher dbVoucher = seckillVoucherService.getById(voucherId);
+            stringRedisTemplate.opsForValue()
+                    .setIfAbsent(SECKILL_STOCK_KEY + voucherId, dbVoucher.getStock().toString());
+            r = executeSeckillScript(voucherId, userId, orderId);
+        }
+        //3.判断结果
+        if (r != 0) {
+            return Result.fail(r == 2 ? "不能重复下单" : "库存不足");
+        }
+        //4.返回订单id
+        return Result.ok(orderId);
+    }
+
+    private int executeSeckillScript(Long voucherId, Long userId, long orderId) {
+        Long result = stringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId, SECKILL_ORDER_STREAM),
+                voucherId.toString(), userId.toString(), String.valueOf(orderId)
+        );
+        return result == null ? 1 : result.intValue();
+    }
+
+    /**
+     * 订单消费者：从stream中按批读取订单，批量落库后ack
+     */
+    private class VoucherOrderHandler implements Runnable {
+
+        @Override
+        public void run() {
+            // 启动时先接管其他已经宕机消费者遗留的消息，再处理自己的pending-list
+            claimIdlePendingMessages();
+            handlePendingList();
+            while (running) {
+                try {
+                    //1.获取消息队列中的订单 XREADGROUP GROUP g1 c1 COUNT n BLOCK 2000 STREAMS stream.orders >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(batchSize).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.lastConsumed())
+                    );
+                    //2.没有消息，继续下一次循环
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    //3.批量落库并ack
+                    handleRecords(list);
+                } catch (Exception e) {
+                    if (!running) {
+                        break;
+                    }
+                    log.error("处理订单异常", e);
+                    handlePendingList();
+                }
+            }
         }
 
+        /**
+         * 处理已读取但未ack的消息
+         */
+        private void handlePendingList() {
+            while (running) {
+                try {
+                    //1.获取pending-list中的订单 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders 0
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(SECKILL_ORDER_GROUP, consumerName),
+                            StreamReadOptions.empty().count(batchSize),
+                            StreamOffset.create(SECKILL_ORDER_STREAM, ReadOffset.from("0"))
+                    );
+                    //2.pending-list中没有消息，结束
+                    if (list == null || list.isEmpty()) {
+                        break;
+                    }
+                    handleRecords(list);
+                } catch (Exception e) {
+                    log.error("处理pending-list订单异常", e);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * 把长时间未ack（超过1分钟）的消息认领到当前消费者
+         */
+        private void claimIdlePendingMessages() {
+            try {
+                PendingMessages pending = stringRedisTemplate.opsForStream()
+                        .pending(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, Range.unbounded(), 1000L);
+                RecordId[] idleIds = pending.stream()
+                        .filter(m -> !consumerName.equals(m.getConsumerName()))
+                        .filter(m -> m.getElapsedTimeSinceLastDelivery().compareTo(Duration.ofMinutes(1)) > 0)
+                        .map(PendingMessage::getId)
+                        .toArray(RecordId[]::new);
+                if (idleIds.length > 0) {
+                    stringRedisTemplate.opsForStream().claim(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP,
+                            consumerName, Duration.ofMinutes(1), idleIds);
+                    log.info("接管了{}条其他消费者遗留的订单消息", idleIds.length);
+                }
+            } catch (Exception e) {
+                log.error("认领pending订单消息失败", e);
+            }
+        }
+
+        private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+            List<VoucherOrder> orders = records.stream()
+                    .map(record -> BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true))
+                    .collect(Collectors.toList());
+            self.createVoucherOrders(orders);
+            // 落库成功后确认消息 XACK
+            RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+            stringRedisTemplate.opsForStream().acknowledge(SECKILL_ORDER_STREAM, SECKILL_ORDER_GROUP, ids);
+        }
+    }
+
+    private void createStreamGroupIfAbsent() {
+        try {
+            // XGROUP CREATE stream.orders g1 0 MKSTREAM
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.streamCommands().xGroupCreate(
+                        SECKILL_ORDER_STREAM.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, ReadOffset.from("0"), true);
+                return null;
+            });
+        } catch (Exception e) {
+            // BUSYGROUP：消费者组已经存在
+            log.debug("消费者组已存在：{}", e.getMessage());
+        }
+    }
+
+    private String resolveConsumerName() {
+        // 消费者名称需要在重启后保持不变，才能找回自己的pending-list
+        try {
+            return "c-" + InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "c1";
+        }
     }
 
     @Transactional  //用动态代理对象创建代理对象，代理对象调用方法时，会执行代理对象中的方法，并调用目标对象中的方法
@@ -76,12 +348,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
         //6.一人一单
         UserDTO user = UserHolder.getUser();
-        // 6.1.锁库存--用用户ID进行加锁，大大降低了锁的范围，提升了并发性能
-        /**
-         * 用intern()方法，防止锁的key被垃圾回收
-         * 如果创建
-         * 否则每次同一个用户过来都是新的一把锁，值一样锁就一样
-         */
+        // 6.1.调用方已经用用户ID加了分布式锁，大大降低了锁的范围，提升了并发性能
 
         //6.1查询订单
         Integer count = query().eq("user_id", user.getId()).eq("voucher_id", voucherId).count();
@@ -115,4 +382,58 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         return Result.ok(order);
     }
 
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        //1.过滤掉已经落库的订单（宕机重启后pending-list中的消息可能已经保存过）
+        List<Long> ids = voucherOrders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        Set<Long> saved = listByIds(ids).stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        List<VoucherOrder> orders = voucherOrders.stream()
+                .filter(o -> !saved.contains(o.getId()))
+                .collect(Collectors.toList());
+        if (orders.isEmpty()) {
+            return;
+        }
+        //2.按优惠券合并扣减库存，资格已经在redis中校验过；只保存实际扣减了库存的订单，防止超卖
+        Map<Long, List<VoucherOrder>> ordersByVoucher = orders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> toSave = new ArrayList<>(orders.size());
+        ordersByVoucher.forEach((voucherId, list) -> {
+            int deducted = deductStock(voucherId, list.size());
+            if (deducted < list.size()) {
+                List<Long> dropped = list.subList(deducted, list.size()).stream()
+                        .map(VoucherOrder::getId).collect(Collectors.toList());
+                log.error("数据库库存与redis不一致，voucherId：{}，库存不足未创建的订单：{}", voucherId, dropped);
+            }
+            toSave.addAll(list.subList(0, deducted));
+        });
+        //3.批量保存订单
+        if (!toSave.isEmpty()) {
+            saveBatch(toSave);
+        }
+    }
+
+    /**
+     * 扣减库存，库存不足count时扣减剩余的全部库存
+     * @return 实际扣减的数量
+     */
+    private int deductStock(Long voucherId, int count) {
+        while (true) {
+            boolean update = seckillVoucherService.update()
+                    .setSql("stock = stock - " + count).eq("voucher_id", voucherId)
+                    .ge("stock", count)
+                    .update();
+            if (update) {
+                return count;
+            }
+            // 库存不足，按当前剩余的库存重试
+            SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+            int stock = voucher == null || voucher.getStock() == null ? 0 : voucher.getStock();
+            if (stock <= 0) {
+                return 0;
+            }
+            count = Math.min(count, stock);
+        }
+    }
+
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,12 +8,18 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheBloomFilter;
+import com.hmdp.utils.CacheChangeStream;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.List;
 
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -26,6 +33,19 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
 
     @Resource
     private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheBloomFilter bloomFilter;
+    @Resource
+    private CacheChangeStream cacheChangeStream;
+
+    @PostConstruct
+    private void init() {
+        // 注册优惠券id的布隆过滤器，拦截不存在的优惠券id
+        bloomFilter.register(CACHE_SECKILL_VOUCHER_KEY, BLOOM_FPP,
+                () -> listObjs(new QueryWrapper<Voucher>().select("id"), id -> Long.valueOf(id.toString())));
+    }
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -35,6 +55,16 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         return Result.ok(vouchers);
     }
 
+    @Override
+    public void addVoucher(Voucher voucher) {
+        // 保存优惠券
+        save(voucher);
+        // 加入布隆过滤器
+        bloomFilter.put(CACHE_SECKILL_VOUCHER_KEY, voucher.getId());
+        // 清理之前缓存的空值
+        cacheChangeStream.publish(CacheChangeStream.TABLE_VOUCHER, voucher.getId());
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -47,5 +77,11 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        // 保存秒杀库存到redis，供秒杀资格判断使用
+        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 加入布隆过滤器
+        bloomFilter.put(CACHE_SECKILL_VOUCHER_KEY, voucher.getId());
+        // 清理之前缓存的空值
+        cacheChangeStream.publish(CacheChangeStream.TABLE_SECKILL_VOUCHER, voucher.getId());
     }
 }
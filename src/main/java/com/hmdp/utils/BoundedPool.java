@@ -0,0 +1,30 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * 有上限的对象池，代替ThreadLocal缓存非线程安全的对象
+ * <p>
+ * 虚拟线程每个任务一个线程，ThreadLocal中的对象无法复用；池中对象在所有线程之间共享，
+ * 池为空时新建，归还时池已满则丢弃
+ */
+public class BoundedPool<T> {
+
+    private final ArrayBlockingQueue<T> pool;
+    private final Supplier<T> factory;
+
+    public BoundedPool(int capacity, Supplier<T> factory) {
+        this.pool = new ArrayBlockingQueue<>(capacity);
+        this.factory = factory;
+    }
+
+    public T borrow() {
+        T t = pool.poll();
+        return t != null ? t : factory.get();
+    }
+
+    public void release(T t) {
+        pool.offer(t);
+    }
+}
@@ -0,0 +1,182 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_TOPIC;
+
+/**
+ * 缓存穿透防护：按缓存key前缀维护已存在id的布隆过滤器
+ * <p>
+ * 过滤器在进程内，启动后及每隔一段时间从数据库全量重建；
+ * 新增数据时写入本地并通过pub/sub广播给其他节点
+ */
+@Slf4j
+@Component
+public class CacheBloomFilter {
+
+    private static final String SEPARATOR = "|";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ConcurrentHashMap<String, Holder> holders = new ConcurrentHashMap<>();
+
+    public CacheBloomFilter(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int i = body.lastIndexOf(SEPARATOR);
+            putLocal(body.substring(0, i), body.substring(i + 1));
+        }, new ChannelTopic(BLOOM_ADD_TOPIC));
+    }
+
+    /**
+     * 注册一个过滤器，首次构建在定时任务中完成，构建完成前所有id都视为可能存在
+     * @param keyPrefix 缓存key前缀
+     * @param fpp 期望的误判率
+     * @param idLoader 从数据库加载全部已存在的id
+     */
+    public void register(String keyPrefix, double fpp, Supplier<Collection<?>> idLoader) {
+        holders.put(keyPrefix, new Holder(fpp, idLoader));
+    }
+
+    /**
+     * 判断id是否可能存在，未注册或尚未构建完成的返回true
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        Holder holder = holders.get(keyPrefix);
+        if (holder == null || holder.filter == null) {
+            return true;
+        }
+        if (holder.filter.mightContain(id.toString())) {
+            return true;
+        }
+        holder.rejected.increment();
+        return false;
+    }
+
+    /**
+     * 新增数据后调用：写入本节点并广播给其他节点
+     */
+    public void put(String keyPrefix, Object id) {
+        putLocal(keyPrefix, id.toString());
+        stringRedisTemplate.convertAndSend(BLOOM_ADD_TOPIC, keyPrefix + SEPARATOR + id);
+    }
+
+    /**
+     * 记录一次误判：过滤器认为存在，但数据库中不存在
+     */
+    public void recordFalsePositive(String keyPrefix) {
+        Holder holder = holders.get(keyPrefix);
+        if (holder != null && holder.filter != null) {
+            holder.falsePositives.increment();
+        }
+    }
+
+    private void putLocal(String keyPrefix, String id) {
+        Holder holder = holders.get(keyPrefix);
+        if (holder == null) {
+            return;
+        }
+        // 与重建的切换互斥，新增不会只写入被替换掉的旧过滤器
+        synchronized (holder) {
+            if (holder.filter != null) {
+                holder.filter.put(id);
+            }
+            // 重建期间的新增同时记录下来，切换前写入新的过滤器，避免丢失
+            if (holder.pending != null) {
+                holder.pending.add(id);
+            }
+        }
+    }
+
+    /**
+     * 定期从数据库全量重建，清理已删除的id并按数据量重新计算容量
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.bloom.rebuild-interval-millis:1800000}")
+    public void rebuildAll() {
+        holders.forEach(this::rebuild);
+    }
+
+    private void rebuild(String keyPrefix, Holder holder) {
+        try {
+            long begin = System.currentTimeMillis();
+            // 1.记录加载期间的新增，避免在加载和切换之间丢失
+            Set<String> pending = ConcurrentHashMap.newKeySet();
+            synchronized (holder) {
+                holder.pending = pending;
+            }
+            // 2.按实际数据量创建新的过滤器并加载
+            Collection<?> ids = holder.idLoader.get();
+            BloomFilter building = new BloomFilter(Math.max(ids.size() * 2L, 10000L), holder.fpp);
+            for (Object id : ids) {
+                building.put(id.toString());
+            }
+            // 3.补上加载期间的新增并切换，与新增互斥
+            synchronized (holder) {
+                pending.forEach(building::put);
+                holder.filter = building;
+                holder.pending = null;
+            }
+            holder.size = ids.size();
+            holder.falsePositives.reset();
+            holder.rejected.reset();
+            log.info("布隆过滤器重建完成，keyPrefix：{}，数量：{}，耗时：{}ms",
+                    keyPrefix, ids.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            synchronized (holder) {
+                holder.pending = null;
+            }
+            log.error("布隆过滤器重建失败，keyPrefix：{}", keyPrefix, e);
+        }
+    }
+
+    /**
+     * 各过滤器的拦截次数和误判率
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        holders.forEach((keyPrefix, holder) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            BloomFilter filter = holder.filter;
+            long rejected = holder.rejected.sum();
+            long falsePositives = holder.falsePositives.sum();
+            item.put("ready", filter != null);
+            item.put("size", holder.size);
+            item.put("rejected", rejected);
+            item.put("falsePositives", falsePositives);
+            // 不存在的id中被放行的比例
+            item.put("falsePositiveRate", rejected + falsePositives == 0 ? 0 : (double) falsePositives / (rejected + falsePositives));
+            item.put("expectedFpp", filter == null ? 0 : filter.expectedFpp());
+            stats.put(keyPrefix, item);
+        });
+        return stats;
+    }
+
+    private static class Holder {
+        private final double fpp;
+        private final Supplier<Collection<?>> idLoader;
+        private volatile BloomFilter filter;
+        private volatile Set<String> pending;
+        private volatile long size;
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder falsePositives = new LongAdder();
+
+        private Holder(double fpp, Supplier<Collection<?>> idLoader) {
+            this.fpp = fpp;
+            this.idLoader = idLoader;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.ExecutorRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.CACHE_CHANGE_DELAYED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_CHANGE_GROUP;
+import static com.hmdp.utils.RedisConstants.CACHE_CHANGE_STREAM;
+import static com.hmdp.utils.RedisConstants.CACHE_SECKILL_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
+
+/**
+ * 数据变更驱动的缓存失效：变更事件（表名 + 主键）写入redis stream，消费者组中的一个节点批量删除对应的缓存，
+ * 并在延迟一段时间后再删除一次（延迟双删），清理并发读在删除前读到旧数据、删除后又写回缓存的情况
+ * <p>
+ * 应用内的写操作在写库后发布事件；应用外的写入（运维脚本、其他服务）由binlog同步组件（如Canal）
+ * 按相同格式写入stream。第二次删除记录在有序集合中，按到期时间取出，节点重启后不会丢失
+ */
+@Slf4j
+@Component
+public class CacheChangeStream {
+
+    public static final String TABLE_SHOP = "tb_shop";
+    public static final String TABLE_SHOP_TYPE = "tb_shop_type";
+    public static final String TABLE_VOUCHER = "tb_voucher";
+    public static final String TABLE_SECKILL_VOUCHER = "tb_seckill_voucher";
+
+    private static final String FIELD_TABLE = "table";
+    private static final String FIELD_ID = "id";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private ExecutorRegistry executorRegistry;
+
+    @Value("${hmdp.cache.change.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.cache.change.batch-size:100}")
+    private int batchSize;
+    /**
+     * 第二次删除的延迟，应大于一次"读库+写缓存"的耗时
+     */
+    @Value("${hmdp.cache.change.double-delete-delay-millis:1000}")
+    private long doubleDeleteDelayMillis;
+    @Value("${hmdp.cache.change.max-length:100000}")
+    private long maxLength;
+
+    private volatile boolean running = true;
+    private String consumerName;
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder delayedEvicted = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        consumerName = resolveConsumerName();
+        createStreamGroupIfAbsent();
+        executorRegistry.create("cache-change", 1, 1, ExecutorRegistry.Rejection.ABORT)
+                .submit(new CacheChangeHandler());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        // 停止消费循环，线程池由ExecutorRegistry关闭
+        running = false;
+    }
+
+    /**
+     * 发布数据变更事件，应在写库之后调用；在事务中调用时推迟到事务提交之后发布，
+     * 避免消费者在提交前删除缓存、并发读又把未提交前的旧数据写回缓存
+     * @param table 表名
+     * @param id 主键，整表缓存（如店铺类型列表）传null
+     */
+    public void publish(String table, Object id) {
+        if (!enabled) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    doPublish(table, id);
+                }
+            });
+        } else {
+            doPublish(table, id);
+        }
+    }
+
+    private void doPublish(String table, Object id) {
+        Map<String, String> event = new HashMap<>(4);
+        event.put(FIELD_TABLE, table);
+        event.put(FIELD_ID, id == null ? "" : id.toString());
+        stringRedisTemplate.opsForStream().add(CACHE_CHANGE_STREAM, event);
+    }
+
+    /**
+     * 表的变更对应需要删除的缓存key，未知的表返回空集合
+     */
+    static List<String> keysOf(String table, String id) {
+        switch (table) {
+            case TABLE_SHOP:
+                return Collections.singletonList(CACHE_SHOP_KEY + id);
+            case TABLE_SHOP_TYPE:
+                return Collections.singletonList(CACHE_SHOP_TYPE_KEY);
+            case TABLE_VOUCHER:
+            case TABLE_SECKILL_VOUCHER:
+                // 秒杀券缓存包含优惠券和秒杀信息，任意一张表变更都要删除
+                return Collections.singletonList(CACHE_SECKILL_VOUCHER_KEY + id);
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("events", events.sum());
+        stats.put("evicted", evicted.sum());
+        stats.put("delayedEvicted", delayedEvicted.sum());
+        stats.put("delayedPending", enabled ? stringRedisTemplate.opsForZSet().zCard(CACHE_CHANGE_DELAYED_KEY) : 0);
+        return stats;
+    }
+
+    private class CacheChangeHandler implements Runnable {
+
+        @Override
+        public void run() {
+            // 先处理重启前已读取但未ack的事件
+            try {
+                while (running && handleRecords(ReadOffset.from("0"), null) > 0) {
+                    log.info("处理了重启前未ack的缓存变更事件");
+                }
+            } catch (Exception e) {
+                log.error("处理pending-list缓存变更事件异常", e);
+            }
+            while (running) {
+                try {
+                    // 1.读取新的变更事件，最多阻塞到下一次第二次删除的检查
+                    handleRecords(ReadOffset.lastConsumed(), Duration.ofMillis(Math.max(doubleDeleteDelayMillis / 2, 100)));
+                    // 2.执行到期的第二次删除
+                    evictDelayed();
+                } catch (Exception e) {
+                    if (!running) {
+                        break;
+                    }
+                    log.error("处理缓存变更事件异常", e);
+                    sleepQuietly();
+                }
+            }
+        }
+
+        /**
+         * @return 本次处理的事件数
+         */
+        private int handleRecords(ReadOffset offset, Duration block) {
+            StreamReadOptions options = StreamReadOptions.empty().count(batchSize);
+            List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                    Consumer.from(CACHE_CHANGE_GROUP, consumerName),
+                    block == null ? options : options.block(block),
+                    StreamOffset.create(CACHE_CHANGE_STREAM, offset));
+            if (list == null || list.isEmpty()) {
+                return 0;
+            }
+            // 1.合并一批事件涉及的key
+            Set<String> keys = new LinkedHashSet<>();
+            for (MapRecord<String, Object, Object> record : list) {
+                Map<Object, Object> value = record.getValue();
+                keys.addAll(keysOf(String.valueOf(value.get(FIELD_TABLE)), String.valueOf(value.get(FIELD_ID))));
+            }
+            // 2.第一次删除，并记录第二次删除的到期时间
+            if (!keys.isEmpty()) {
+                cacheClient.evictBatch(keys);
+                // 店铺类型的内存快照按版本号刷新，版本号要在删除缓存之后更新：
+                // 否则轮询的节点可能在两者之间读到旧的列表缓存，并标记为新版本，之后不再刷新
+                if (keys.contains(CACHE_SHOP_TYPE_KEY)) {
+                    stringRedisTemplate.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+                }
+                double dueMillis = System.currentTimeMillis() + doubleDeleteDelayMillis;
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    byte[] delayedKey = CACHE_CHANGE_DELAYED_KEY.getBytes(StandardCharsets.UTF_8);
+                    for (String key : keys) {
+                        connection.zSetCommands().zAdd(delayedKey, dueMillis, key.getBytes(StandardCharsets.UTF_8));
+                    }
+                    return null;
+                });
+            }
+            // 3.ack，并裁剪stream的长度
+            RecordId[] ids = list.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+            stringRedisTemplate.opsForStream().acknowledge(CACHE_CHANGE_STREAM, CACHE_CHANGE_GROUP, ids);
+            stringRedisTemplate.opsForStream().trim(CACHE_CHANGE_STREAM, maxLength, true);
+            events.add(list.size());
+            evicted.add(keys.size());
+            return list.size();
+        }
+
+        /**
+         * 取出到期的key执行第二次删除，ZREM成功的节点才删除，多个节点不会重复删除
+         */
+        private void evictDelayed() {
+            Set<String> due = stringRedisTemplate.opsForZSet()
+                    .rangeByScore(CACHE_CHANGE_DELAYED_KEY, 0, System.currentTimeMillis(), 0, batchSize);
+            if (due == null || due.isEmpty()) {
+                return;
+            }
+            List<String> keys = new ArrayList<>(due.size());
+            for (String key : due) {
+                Long removed = stringRedisTemplate.opsForZSet().remove(CACHE_CHANGE_DELAYED_KEY, key);
+                if (removed != null && removed > 0) {
+                    keys.add(key);
+                }
+            }
+            if (!keys.isEmpty()) {
+                cacheClient.evictBatch(keys);
+                delayedEvicted.add(keys.size());
+            }
+        }
+
+        private void sleepQuietly() {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+        }
+    }
+
+    private void createStreamGroupIfAbsent() {
+        try {
+            // XGROUP CREATE cache:change:stream g1 0 MKSTREAM
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.streamCommands().xGroupCreate(
+                        CACHE_CHANGE_STREAM.getBytes(StandardCharsets.UTF_8), CACHE_CHANGE_GROUP, ReadOffset.from("0"), true);
+                return null;
+            });
+        } catch (Exception e) {
+            // BUSYGROUP：消费者组已经存在
+            log.debug("消费者组已存在：{}", e.getMessage());
+        }
+    }
+
+    private String resolveConsumerName() {
+        // 消费者名称需要在重启后保持不变，才能找回自己的pending-list
+        try {
+            return "c-" + InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "c1";
+        }
+    }
+}
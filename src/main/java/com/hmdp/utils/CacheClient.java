@@ -1,47 +1,305 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.config.ExecutorRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_TOPIC;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_PREFIX;
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
 
 @Slf4j
 @Component
 public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
+    /**
+     * 缓存值按字节读写，不经过String和UTF-8转换
+     */
+    private final RedisTemplate<String, byte[]> cacheRedisTemplate;
+    /**
+     * 异步读写使用Lettuce的共享连接，多个线程的命令在同一个连接上流水线发送，不占用连接池
+     */
+    private final ReactiveRedisTemplate<String, byte[]> reactiveCacheRedisTemplate;
+    private final RedisLockFactory lockFactory;
+    private final CacheBloomFilter bloomFilter;
+    private final CacheSerializer serializer;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 逻辑过期的重建线程，队列满时放弃重建、继续返回旧数据，见ExecutorRegistry
+     */
+    private final ExecutorService cacheRebuildExecutor;
+    /**
+     * 异步查询未命中时执行数据库查询，JDBC是阻塞的，不能在redis的IO线程中执行
+     */
+    private final ExecutorService cacheDbExecutor;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    /**
+     * 本地缓存中的空值占位，对应redis中的空字符串
+     */
+    private static final Object NULL_VALUE = new Object();
+    private static final byte[] NULL_BYTES = new byte[0];
+
+    /**
+     * 互斥重建时等待其他节点释放锁的最长时间
+     */
+    private static final long MUTEX_WAIT_MILLIS = 3000L;
+
+    /**
+     * 一级缓存（进程内），存放已经反序列化好的对象；二级缓存为redis
+     */
+    private final LocalCache<String, Object> localCache;
+    private final long localNullTtlMillis;
+    /**
+     * 热点key的进程内副本，容量只有top-K，不会被一级缓存的随机淘汰挤出；逻辑过期和列表缓存没有一级缓存，
+     * 热点key的读取也由副本承担。存活时间较短，降级后的副本自然过期
+     */
+    private final HotKeyDetector hotKeyDetector;
+    private final LocalCache<String, Object> hotReplica;
+    /**
+     * 本节点正在重建的key，避免同一个key重复提交重建任务
+     */
+    private final Set<String> rebuildingKeys = ConcurrentHashMap.newKeySet();
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder localMisses = new LongAdder();
+    private final LongAdder hotHits = new LongAdder();
+    private final LongAdder redisHits = new LongAdder();
+    private final LongAdder redisMisses = new LongAdder();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       @Qualifier("cacheRedisTemplate") RedisTemplate<String, byte[]> cacheRedisTemplate,
+                       @Qualifier("reactiveCacheRedisTemplate") ReactiveRedisTemplate<String, byte[]> reactiveCacheRedisTemplate,
+                       RedisLockFactory lockFactory,
+                       CacheBloomFilter bloomFilter,
+                       CacheSerializer serializer,
+                       RedisMessageListenerContainer listenerContainer,
+                       ExecutorRegistry executorRegistry,
+                       HotKeyDetector hotKeyDetector,
+                       @Value("${hmdp.cache.local.maximum-size:10000}") int localMaximumSize,
+                       @Value("${hmdp.cache.local.ttl-seconds:30}") long localTtlSeconds,
+                       @Value("${hmdp.cache.hot-key.replica-ttl-millis:3000}") long hotReplicaTtlMillis) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheRedisTemplate = cacheRedisTemplate;
+        this.reactiveCacheRedisTemplate = reactiveCacheRedisTemplate;
+        this.lockFactory = lockFactory;
+        this.bloomFilter = bloomFilter;
+        this.serializer = serializer;
+        this.cacheRebuildExecutor = executorRegistry.create("cache-rebuild", 10, 1000, ExecutorRegistry.Rejection.ABORT);
+        this.cacheDbExecutor = executorRegistry.create("cache-db", 10, 1000, ExecutorRegistry.Rejection.ABORT);
+        this.localCache = new LocalCache<>(localMaximumSize, TimeUnit.SECONDS.toMillis(localTtlSeconds));
+        this.hotKeyDetector = hotKeyDetector;
+        this.hotReplica = new LocalCache<>(hotKeyDetector.getTopK() * 2, hotReplicaTtlMillis);
+        // 空值在本地只保留较短时间，避免新增数据后其他节点长时间读到空值
+        this.localNullTtlMillis = Math.min(TimeUnit.SECONDS.toMillis(localTtlSeconds), TimeUnit.SECONDS.toMillis(5));
+        // 订阅失效广播：任意节点删除缓存后，所有节点同步清理本地缓存
+        listenerContainer.addMessageListener((message, pattern) ->
+                        removeLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_TOPIC));
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        byte[] data = serializer.encode(value);
+        cacheRedisTemplate.opsForValue().set(key, data, time, unit);
+    }
+
+    /**
+     * 读取缓存的列表，不存在时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <R> List<R> getList(String key, Class<R> type) {
+        // 1.热点key先查进程内副本
+        boolean hot = hotKeyDetector.record(key);
+        if (hot) {
+            Object replica = hotReplica.get(key);
+            if (replica != null) {
+                hotHits.increment();
+                return (List<R>) replica;
+            }
+        }
+        // 2.查询redis
+        byte[] data = getRaw(key);
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        List<R> values = serializer.decodeList(data, type);
+        if (hot) {
+            hotReplica.put(key, values);
+        }
+        return values;
+    }
+
+    /**
+     * 写入列表，不设置过期时间
+     */
+    public void setList(String key, List<?> values) {
+        byte[] data = serializer.encodeList(values);
+        cacheRedisTemplate.opsForValue().set(key, data);
+    }
+
+    /**
+     * 查本地缓存，热点key先查副本；同时记录访问用于热点探测
+     */
+    private Object getLocal(String key) {
+        if (!hotKeyDetector.record(key)) {
+            return localCache.get(key);
+        }
+        Object replica = hotReplica.get(key);
+        if (replica != null) {
+            hotHits.increment();
+            return replica;
+        }
+        // 刚晋升的热点key，从一级缓存复制到副本
+        Object local = localCache.get(key);
+        if (local != null) {
+            hotReplica.put(key, local);
+        }
+        return local;
+    }
+
+    private void putLocal(String key, Object value) {
+        localCache.put(key, value);
+        if (hotKeyDetector.isHot(key)) {
+            hotReplica.put(key, value);
+        }
+    }
+
+    private void putLocal(String key, Object value, long ttlMillis) {
+        localCache.put(key, value, ttlMillis);
+        if (hotKeyDetector.isHot(key)) {
+            hotReplica.put(key, value, ttlMillis);
+        }
+    }
+
+    private void removeLocal(String key) {
+        localCache.remove(key);
+        hotReplica.remove(key);
+    }
+
+    private byte[] getRaw(String key) {
+        return cacheRedisTemplate.opsForValue().get(key);
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 是否是缓存的空值（空字符串）
+     */
+    private static boolean isNullValue(byte[] data) {
+        return data.length == 0;
+    }
+
+    /**
+     * 删除缓存：同时删除redis和本地缓存，并广播给其他节点清理各自的本地缓存
+     * @param key 缓存key
+     */
+    public void evict(String key) {
+        stringRedisTemplate.delete(key);
+        removeLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_TOPIC, key);
+    }
+
+    /**
+     * 批量删除缓存：一次DEL删除redis中的key，失效广播通过pipeline发送
+     * @param keys 缓存key
+     */
+    public void evictBatch(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.delete(keys);
+        keys.forEach(this::removeLocal);
+        byte[] topic = rawKey(CACHE_INVALIDATE_TOPIC);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            keys.forEach(key -> connection.publish(topic, rawKey(key)));
+            return null;
+        });
+    }
+
+    /**
+     * 各级缓存的命中统计
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("localSize", localCache.size());
+        stats.put("localMaximumSize", localCache.getMaximumSize());
+        stats.put("localHits", localHits.sum());
+        stats.put("localMisses", localMisses.sum());
+        stats.put("hotReplicaSize", hotReplica.size());
+        stats.put("hotHits", hotHits.sum());
+        stats.put("redisHits", redisHits.sum());
+        stats.put("redisMisses", redisMisses.sum());
+        stats.put("rebuildExecuted", singleFlight.getExecuted());
+        stats.put("rebuildShared", singleFlight.getShared());
+        stats.put("bloomFilter", bloomFilter.stats());
+        return stats;
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
         // 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        byte[] data = serializer.encodeWithExpire(value, System.currentTimeMillis() + unit.toMillis(time));
         // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        cacheRedisTemplate.opsForValue().set(key, data);
+    }
+
+    /**
+     * 通过pipeline批量写入，过期时间增加0~10%的随机值，避免同时过期
+     * @param values key -> 数据
+     */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit) {
+        long seconds = unit.toSeconds(time);
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> {
+                long jitter = ThreadLocalRandom.current().nextLong(seconds / 10 + 1);
+                connection.stringCommands().setEx(rawKey(key), seconds + jitter, serializer.encode(value));
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 通过pipeline批量写入逻辑过期的数据
+     * @param values key -> 数据
+     */
+    public void setWithLogicalExpireBatch(Map<String, ?> values, Long time, TimeUnit unit) {
+        long expireMillis = System.currentTimeMillis() + unit.toMillis(time);
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) ->
+                    connection.stringCommands().set(rawKey(key), serializer.encodeWithExpire(value, expireMillis)));
+            return null;
+        });
     }
 
     /**
@@ -58,75 +316,275 @@ public class CacheClient {
      */
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        // 0.布隆过滤器判断一定不存在的id，直接返回
+        if (!bloomFilter.mightContain(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.1.查本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            localHits.increment();
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+        localMisses.increment();
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] data = getRaw(key);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
+        if (data != null && !isNullValue(data)) {
+            redisHits.increment();
+            // 3.存在，写入本地缓存并返回
+            R r = serializer.decode(data, type);
+            putLocal(key, r);
+            return r;
         }
         // 判断命中的是否是空值
-        if (json != null) {
+        if (data != null) {
+            redisHits.increment();
+            putLocal(key, NULL_VALUE, localNullTtlMillis);
             // 返回一个错误信息
             return null;
         }
+        redisMisses.increment();
 
         // 4.不存在，根据id查询数据库
         R r = dbFallback.apply(id);
         // 5.不存在，返回错误
         if (r == null) {
+            bloomFilter.recordFalsePositive(keyPrefix);
             // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            cacheRedisTemplate.opsForValue().set(key, NULL_BYTES, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            putLocal(key, NULL_VALUE, localNullTtlMillis);
             // 返回错误信息
             return null;
         }
         // 6.存在，写入redis
         this.set(key, r, time, unit);
+        putLocal(key, r);
         return r;
     }
 
 
+    /**
+     * 异步的缓存穿透查询，语义与queryWithPassThrough相同
+     * <p>
+     * 本地缓存命中时直接返回已完成的future；redis通过Lettuce异步读取，调用线程不等待网络IO；
+     * 未命中时数据库查询在独立的线程池中执行。回调可能在redis的IO线程中执行，不能在其中做阻塞操作
+     */
+    public <R, ID> CompletableFuture<R> queryWithPassThroughAsync(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断一定不存在的id，直接返回
+        if (!bloomFilter.mightContain(keyPrefix, id)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String key = keyPrefix + id;
+        // 0.1.查本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            localHits.increment();
+            return CompletableFuture.completedFuture(local == NULL_VALUE ? null : type.cast(local));
+        }
+        localMisses.increment();
+        // 1.异步查询redis，不存在时Mono为空，future的结果为null
+        return reactiveCacheRedisTemplate.opsForValue().get(key).toFuture()
+                .thenCompose(data -> {
+                    // 2.命中，直接返回
+                    if (data != null) {
+                        redisHits.increment();
+                        R r = null;
+                        if (isNullValue(data)) {
+                            putLocal(key, NULL_VALUE, localNullTtlMillis);
+                        } else {
+                            r = serializer.decode(data, type);
+                            putLocal(key, r);
+                        }
+                        return CompletableFuture.completedFuture(r);
+                    }
+                    // 3.未命中，查询数据库并异步写回
+                    redisMisses.increment();
+                    return CompletableFuture.supplyAsync(() -> dbFallback.apply(id), cacheDbExecutor)
+                            .thenCompose(r -> writeBackAsync(keyPrefix, key, r, time, unit));
+                });
+    }
+
+    private <R> CompletableFuture<R> writeBackAsync(String keyPrefix, String key, R r, Long time, TimeUnit unit) {
+        if (r == null) {
+            bloomFilter.recordFalsePositive(keyPrefix);
+            putLocal(key, NULL_VALUE, localNullTtlMillis);
+            return reactiveCacheRedisTemplate.opsForValue()
+                    .set(key, NULL_BYTES, Duration.ofMinutes(CACHE_NULL_TTL)).toFuture()
+                    .thenApply(ok -> null);
+        }
+        putLocal(key, r);
+        return reactiveCacheRedisTemplate.opsForValue()
+                .set(key, serializer.encode(r), Duration.ofSeconds(unit.toSeconds(time))).toFuture()
+                .thenApply(ok -> r);
+    }
+
+    /**
+     * 批量查询：一次MGET查询redis，未命中的id合并为一次数据库查询，再通过pipeline批量写回
+     * 对每个id保持与queryWithPassThrough相同的空值语义
+     * @param keyPrefix key前缀
+     * @param ids id集合
+     * @param type 数据类型
+     * @param dbFallback 根据未命中的id批量查询数据库，返回 id -> 数据
+     * @param time 缓存时间，写回时会加上随机抖动，避免同时过期
+     * @param unit 时间单位
+     * @return id -> 数据，不存在的id不会出现在结果中，顺序与ids一致
+     */
+    public <R, ID> Map<ID, R> queryBatch(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                         Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return result;
+        }
+        // 1.布隆过滤器和本地缓存过滤
+        List<ID> remoteIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!bloomFilter.mightContain(keyPrefix, id)) {
+                continue;
+            }
+            Object local = getLocal(keyPrefix + id);
+            if (local == null) {
+                localMisses.increment();
+                remoteIds.add(id);
+                // 先占位，保证返回顺序与ids一致
+                result.put(id, null);
+            } else {
+                localHits.increment();
+                if (local != NULL_VALUE) {
+                    result.put(id, type.cast(local));
+                }
+            }
+        }
+        if (remoteIds.isEmpty()) {
+            return result;
+        }
+        // 2.一次MGET查询redis
+        List<String> keys = remoteIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<byte[]> values = cacheRedisTemplate.opsForValue().multiGet(keys);
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            byte[] data = values == null ? null : values.get(i);
+            if (data != null && !isNullValue(data)) {
+                redisHits.increment();
+                R r = serializer.decode(data, type);
+                putLocal(keys.get(i), r);
+                result.put(id, r);
+            } else if (data != null) {
+                // 命中空值
+                redisHits.increment();
+                putLocal(keys.get(i), NULL_VALUE, localNullTtlMillis);
+                result.remove(id);
+            } else {
+                redisMisses.increment();
+                missIds.add(id);
+            }
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 3.未命中的id合并为一次数据库查询
+        Map<ID, R> dbResult = dbFallback.apply(missIds);
+        // 4.通过pipeline批量写回redis，数据库中不存在的写入空值
+        long seconds = unit.toSeconds(time);
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : missIds) {
+                String key = keyPrefix + id;
+                R r = dbResult == null ? null : dbResult.get(id);
+                if (r == null) {
+                    bloomFilter.recordFalsePositive(keyPrefix);
+                    connection.stringCommands().setEx(rawKey(key), TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL), NULL_BYTES);
+                    putLocal(key, NULL_VALUE, localNullTtlMillis);
+                } else {
+                    long jitter = ThreadLocalRandom.current().nextLong(seconds / 10 + 1);
+                    connection.stringCommands().setEx(rawKey(key), seconds + jitter, serializer.encode(r));
+                    putLocal(key, r);
+                }
+            }
+            return null;
+        });
+        for (ID id : missIds) {
+            R r = dbResult == null ? null : dbResult.get(id);
+            if (r == null) {
+                result.remove(id);
+            } else {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断一定不存在的id，直接返回
+        if (!bloomFilter.mightContain(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.1.热点key先查进程内副本，未过期直接返回
+        boolean hot = hotKeyDetector.record(key);
+        if (hot) {
+            Object replica = hotReplica.get(key);
+            if (replica != null && !((CacheSerializer.Expirable<?>) replica).isExpired()) {
+                hotHits.increment();
+                return type.cast(((CacheSerializer.Expirable<?>) replica).getData());
+            }
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] data = getRaw(key);
         // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
+        if (data == null || isNullValue(data)) {
             // 3.存在，直接返回
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+        // 4.命中，逻辑过期时间在数据头中，数据只反序列化一次
+        CacheSerializer.Expirable<R> expirable = serializer.decodeWithExpire(data, type);
+        R r = expirable.getData();
         // 5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
+        if (!expirable.isExpired()) {
             // 5.1.未过期，直接返回店铺信息
+            if (hot) {
+                hotReplica.put(key, expirable);
+            }
             return r;
         }
         // 5.2.已过期，需要缓存重建
-        // 6.缓存重建
-        // 6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        // 6.2.判断是否获取锁成功
-        if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    // 查询数据库
-                    R newR = dbFallback.apply(id);
-                    // 重建缓存
-                    this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    // 释放锁
-                    unlock(lockKey);
-                }
-            });
+        // 6.缓存重建：同一个key在本节点只提交一次重建任务，跨节点由分布式锁保证只有一个节点重建
+        if (rebuildingKeys.add(key)) {
+            try {
+                cacheRebuildExecutor.submit(() -> {
+                    // 6.1.获取互斥锁，锁在重建线程中获取和释放
+                    ILock lock = lockFactory.getLock(LOCK_CACHE_PREFIX + key);
+                    if (!lock.tryLock()) {
+                        rebuildingKeys.remove(key);
+                        return;
+                    }
+                    try {
+                        // 6.2.再次检查，其他节点可能已经重建完成
+                        byte[] latest = getRaw(key);
+                        if (latest != null && !isNullValue(latest)
+                                && !serializer.decodeWithExpire(latest, type).isExpired()) {
+                            return;
+                        }
+                        // 查询数据库
+                        R newR = dbFallback.apply(id);
+                        // 重建缓存
+                        this.setWithLogicalExpire(key, newR, time, unit);
+                    } catch (Exception e) {
+                        log.error("缓存重建失败，key：{}", key, e);
+                    } finally {
+                        // 释放锁
+                        lock.unlock();
+                        rebuildingKeys.remove(key);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // 6.3.重建线程池已满，本次不重建，下次访问再尝试
+                rebuildingKeys.remove(key);
+                log.warn("缓存重建任务被拒绝，返回旧数据，key：{}", key);
+            }
         }
         // 6.4.返回过期的商铺信息
         return r;
@@ -135,59 +593,92 @@ public class CacheClient {
 
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 0.布隆过滤器判断一定不存在的id，直接返回
+        if (!bloomFilter.mightContain(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.1.查本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            localHits.increment();
+            return local == NULL_VALUE ? null : type.cast(local);
+        }
+        localMisses.increment();
         // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        byte[] data = getRaw(key);
         // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+        if (data != null && !isNullValue(data)) {
+            redisHits.increment();
+            // 3.存在，写入本地缓存并返回
+            R r = serializer.decode(data, type);
+            putLocal(key, r);
+            return r;
         }
         // 判断命中的是否是空值
-        if (shopJson != null) {
+        if (data != null) {
+            redisHits.increment();
+            putLocal(key, NULL_VALUE, localNullTtlMillis);
             // 返回一个错误信息
             return null;
         }
+        redisMisses.increment();
+
+        // 4.实现缓存重建：本节点内同一个key的并发miss合并为一次重建，其余请求等待重建结果
+        return type.cast(singleFlight.execute(key,
+                () -> rebuildWithMutex(keyPrefix, id, type, dbFallback, time, unit),
+                MUTEX_WAIT_MILLIS + LOCK_SHOP_TTL * 1000, TimeUnit.MILLISECONDS));
+    }
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+    private <R, ID> R rebuildWithMutex(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 4.1.获取互斥锁，其他节点正在重建时等待其解锁通知，跨节点只有一个节点查询数据库
+        ILock lock = lockFactory.getLock(LOCK_CACHE_PREFIX + key);
+        R r;
+        boolean isLock = false;
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
+            isLock = lock.tryLock(MUTEX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            // 4.2.再次查询redis，等待期间其他节点可能已经完成重建
+            byte[] data = getRaw(key);
+            if (data != null && !isNullValue(data)) {
+                r = serializer.decode(data, type);
+                putLocal(key, r);
+                return r;
+            }
+            if (data != null) {
+                putLocal(key, NULL_VALUE, localNullTtlMillis);
+                return null;
+            }
+            // 4.3.等待超时仍未获取到锁，直接查询数据库兜底，不写缓存
             if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+                return dbFallback.apply(id);
             }
             // 4.4.获取锁成功，根据id查询数据库
             r = dbFallback.apply(id);
             // 5.不存在，返回错误
             if (r == null) {
+                bloomFilter.recordFalsePositive(keyPrefix);
                 // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                cacheRedisTemplate.opsForValue().set(key, NULL_BYTES, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                putLocal(key, NULL_VALUE, localNullTtlMillis);
                 // 返回错误信息
                 return null;
             }
             // 6.存在，写入redis
             this.set(key, r, time, unit);
+            putLocal(key, r);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        }finally {
+        } finally {
             // 7.释放锁
-            unlock(lockKey);
+            if (isLock) {
+                lock.unlock();
+            }
         }
         // 8.返回
         return r;
     }
 
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
-    }
-
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
-    }
 }
\ No newline at end of file
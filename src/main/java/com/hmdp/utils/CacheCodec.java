@@ -0,0 +1,224 @@
+package com.hmdp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * 缓存对象的二进制编码，按字段顺序写入，整数使用zigzag varint
+ * <p>
+ * 实现类注册为Spring Bean后由{@link CacheSerializer}自动发现；
+ * 字段有增减时提高{@link #version()}，decode需要兼容读取旧版本写入的数据
+ */
+public interface CacheCodec<T> {
+
+    /**
+     * 编码的对象类型
+     */
+    Class<T> type();
+
+    /**
+     * schema版本，写入在数据头中
+     */
+    int version();
+
+    void encode(T value, Writer out);
+
+    /**
+     * @param version 写入数据时的schema版本
+     */
+    T decode(Reader in, int version);
+
+    /**
+     * 可扩容的字节缓冲区
+     */
+    final class Writer {
+        private byte[] buf;
+        private int size;
+
+        public Writer(int initialCapacity) {
+            this.buf = new byte[initialCapacity];
+        }
+
+        private void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, size + n));
+            }
+        }
+
+        public void writeByte(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        public void writeFixedLong(long v) {
+            ensure(8);
+            for (int i = 7; i >= 0; i--) {
+                buf[size++] = (byte) (v >>> (i << 3));
+            }
+        }
+
+        /**
+         * 无符号varint，每字节7位
+         */
+        public void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[size++] = (byte) v;
+        }
+
+        /**
+         * 有符号整数先做zigzag，绝对值小的负数也只占很少的字节
+         */
+        public void writeZigZag(long v) {
+            writeVarLong((v << 1) ^ (v >> 63));
+        }
+
+        public void writeDouble(double v) {
+            writeFixedLong(Double.doubleToRawLongBits(v));
+        }
+
+        /**
+         * 直接把字符按UTF-8写入缓冲区，不分配中间数组
+         */
+        public void writeString(String s) {
+            int length = utf8Length(s);
+            writeVarLong(length);
+            ensure(length);
+            for (int i = 0, n = s.length(); i < n; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[size++] = (byte) (0xC0 | (c >> 6));
+                    buf[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        int cp = Character.toCodePoint(c, s.charAt(++i));
+                        buf[size++] = (byte) (0xF0 | (cp >> 18));
+                        buf[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                        buf[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        buf[size++] = (byte) (0x80 | (cp & 0x3F));
+                    } else {
+                        // 不成对的代理字符与String.getBytes一致，替换为'?'
+                        buf[size++] = '?';
+                    }
+                } else {
+                    buf[size++] = (byte) (0xE0 | (c >> 12));
+                    buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        private static int utf8Length(String s) {
+            int length = 0;
+            for (int i = 0, n = s.length(); i < n; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        length += 4;
+                        i++;
+                    } else {
+                        length++;
+                    }
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        public void writeDateTime(LocalDateTime time) {
+            writeZigZag(time.toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+
+        public void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        /**
+         * 清空后复用底层数组
+         */
+        public void reset() {
+            size = 0;
+        }
+
+        public int capacity() {
+            return buf.length;
+        }
+    }
+
+    final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        public Reader(byte[] buf, int offset) {
+            this.buf = buf;
+            this.pos = offset;
+        }
+
+        public int position() {
+            return pos;
+        }
+
+        public int readByte() {
+            return buf[pos++] & 0xFF;
+        }
+
+        public long readFixedLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        public long readVarLong() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buf[pos++];
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return v;
+                }
+            }
+            throw new IllegalArgumentException("varint格式错误");
+        }
+
+        public long readZigZag() {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        public double readDouble() {
+            return Double.longBitsToDouble(readFixedLong());
+        }
+
+        public String readString() {
+            int length = (int) readVarLong();
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        public LocalDateTime readDateTime() {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(readZigZag()), ZoneOffset.UTC);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 缓存值的序列化，数据格式：
+ * <pre>
+ * [格式 1字节][标记 1字节][逻辑过期时间 8字节，epoch毫秒，可选][schema版本 1字节，仅二进制][数据]
+ * </pre>
+ * 格式：1 JSON，2 二进制（{@link CacheCodec}）；标记：1 带逻辑过期时间，2 列表；
+ * 写入格式由 hmdp.cache.codec 决定，没有注册二进制编码的类型使用JSON；读取时按数据头识别格式，
+ * 以'{'或'['开头的是升级前写入的JSON，同样可以读取，切换格式不需要清空缓存
+ */
+@Component
+public class CacheSerializer {
+
+    private static final byte FORMAT_JSON = 1;
+    private static final byte FORMAT_BINARY = 2;
+    private static final int FLAG_EXPIRE = 1;
+    private static final int FLAG_LIST = 1 << 1;
+    /**
+     * 编码缓冲区在线程之间复用，只有最终的结果数组需要分配；超过该大小的缓冲区用完后不保留
+     */
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+    private static final BoundedPool<CacheCodec.Writer> WRITER_POOL =
+            new BoundedPool<>(256, () -> new CacheCodec.Writer(1024));
+
+    private final Map<Class<?>, CacheCodec<?>> codecs = new HashMap<>();
+    private final boolean binary;
+
+    public CacheSerializer(List<CacheCodec<?>> codecs,
+                           @Value("${hmdp.cache.codec:binary}") String codec) {
+        codecs.forEach(c -> this.codecs.put(c.type(), c));
+        this.binary = "binary".equalsIgnoreCase(codec);
+    }
+
+    /**
+     * 带逻辑过期时间的缓存值
+     */
+    public static class Expirable<T> {
+        private final T data;
+        private final long expireMillis;
+
+        public Expirable(T data, long expireMillis) {
+            this.data = data;
+            this.expireMillis = expireMillis;
+        }
+
+        public T getData() {
+            return data;
+        }
+
+        public long getExpireMillis() {
+            return expireMillis;
+        }
+
+        public boolean isExpired() {
+            return expireMillis <= System.currentTimeMillis();
+        }
+    }
+
+    public byte[] encode(Object value) {
+        return write(value, Collections.singletonList(value), 0, 0);
+    }
+
+    public byte[] encodeWithExpire(Object value, long expireMillis) {
+        return write(value, Collections.singletonList(value), FLAG_EXPIRE, expireMillis);
+    }
+
+    public byte[] encodeList(List<?> values) {
+        return write(values, values, FLAG_LIST, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] write(Object value, List<?> elements, int flags, long expireMillis) {
+        CacheCodec<Object> codec = binary ? (CacheCodec<Object>) findCodec(elements) : null;
+        CacheCodec.Writer out = WRITER_POOL.borrow();
+        out.reset();
+        try {
+            return doWrite(out, codec, value, elements, flags, expireMillis);
+        } finally {
+            if (out.capacity() <= MAX_POOLED_CAPACITY) {
+                WRITER_POOL.release(out);
+            }
+        }
+    }
+
+    private byte[] doWrite(CacheCodec.Writer out, CacheCodec<Object> codec, Object value, List<?> elements,
+                           int flags, long expireMillis) {
+        out.writeByte(codec == null ? FORMAT_JSON : FORMAT_BINARY);
+        out.writeByte(flags);
+        if ((flags & FLAG_EXPIRE) != 0) {
+            out.writeFixedLong(expireMillis);
+        }
+        if (codec == null) {
+            out.writeBytes(JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8));
+            return out.toByteArray();
+        }
+        out.writeByte(codec.version());
+        if ((flags & FLAG_LIST) != 0) {
+            out.writeVarLong(elements.size());
+        }
+        for (Object element : elements) {
+            codec.encode(element, out);
+        }
+        return out.toByteArray();
+    }
+
+    private CacheCodec<?> findCodec(List<?> elements) {
+        // 列表中的元素类型相同，空列表用JSON即可
+        return elements.isEmpty() || elements.get(0) == null ? null : codecs.get(elements.get(0).getClass());
+    }
+
+    public <T> T decode(byte[] data, Class<T> type) {
+        if (isLegacyJson(data)) {
+            return JSONUtil.toBean(new String(data, StandardCharsets.UTF_8), type);
+        }
+        CacheCodec.Reader in = new CacheCodec.Reader(data, 2);
+        return readOne(data, in, type);
+    }
+
+    public <T> Expirable<T> decodeWithExpire(byte[] data, Class<T> type) {
+        if (isLegacyJson(data)) {
+            RedisData redisData = JSONUtil.toBean(new String(data, StandardCharsets.UTF_8), RedisData.class);
+            T value = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+            long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return new Expirable<>(value, expireMillis);
+        }
+        if ((data[1] & FLAG_EXPIRE) == 0) {
+            throw new IllegalArgumentException("缓存数据没有逻辑过期时间");
+        }
+        CacheCodec.Reader in = new CacheCodec.Reader(data, 2);
+        long expireMillis = in.readFixedLong();
+        return new Expirable<>(readOne(data, in, type), expireMillis);
+    }
+
+    public <T> List<T> decodeList(byte[] data, Class<T> type) {
+        if (isLegacyJson(data)) {
+            return JSONUtil.toList(new String(data, StandardCharsets.UTF_8), type);
+        }
+        CacheCodec.Reader in = new CacheCodec.Reader(data, 2);
+        if (data[0] == FORMAT_JSON) {
+            return JSONUtil.toList(remaining(data, in), type);
+        }
+        CacheCodec<T> codec = binaryCodec(data, type);
+        int version = in.readByte();
+        int size = (int) in.readVarLong();
+        List<T> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(codec.decode(in, version));
+        }
+        return list;
+    }
+
+    private <T> T readOne(byte[] data, CacheCodec.Reader in, Class<T> type) {
+        if (data[0] == FORMAT_JSON) {
+            return JSONUtil.toBean(remaining(data, in), type);
+        }
+        CacheCodec<T> codec = binaryCodec(data, type);
+        int version = in.readByte();
+        return codec.decode(in, version);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CacheCodec<T> binaryCodec(byte[] data, Class<T> type) {
+        CacheCodec<T> codec = data[0] == FORMAT_BINARY ? (CacheCodec<T>) codecs.get(type) : null;
+        if (codec == null) {
+            throw new IllegalArgumentException("无法识别的缓存格式：" + data[0] + "，类型：" + type.getName());
+        }
+        return codec;
+    }
+
+    private static String remaining(byte[] data, CacheCodec.Reader in) {
+        return new String(data, in.position(), data.length - in.position(), StandardCharsets.UTF_8);
+    }
+
+    private static boolean isLegacyJson(byte[] data) {
+        return data[0] == '{' || data[0] == '[';
+    }
+}
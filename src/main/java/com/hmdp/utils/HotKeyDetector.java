@@ -0,0 +1,184 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点key探测：对缓存key的访问抽样，用count-min sketch估算每个时间窗口内的访问次数
+ * <p>
+ * 估算值达到晋升阈值的key中访问最多的top-K个成为热点key，由CacheClient复制到进程内；
+ * 已是热点的key在估算值低于降级阈值后降级。sketch的计数是无锁的，每个窗口结束时清零
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 1 << 12;
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private final boolean enabled;
+    private final int sampleRate;
+    private final int topK;
+    private final long promoteThreshold;
+    private final long demoteThreshold;
+    private final int maxCandidates;
+
+    private final AtomicLongArray sketch = new AtomicLongArray(DEPTH * WIDTH);
+    /**
+     * 本窗口内估算值达到晋升阈值的key，窗口结束时从中选出热点key
+     */
+    private final Set<String> candidates = ConcurrentHashMap.newKeySet();
+    /**
+     * 当前的热点key及上个窗口的估算访问次数，只在窗口结束时整体替换
+     */
+    private volatile Map<String, Long> hotKeys = Collections.emptyMap();
+
+    private final LongAdder promotions = new LongAdder();
+    private final LongAdder demotions = new LongAdder();
+
+    public HotKeyDetector(@Value("${hmdp.cache.hot-key.enabled:true}") boolean enabled,
+                          @Value("${hmdp.cache.hot-key.sample-rate:8}") int sampleRate,
+                          @Value("${hmdp.cache.hot-key.top-k:32}") int topK,
+                          @Value("${hmdp.cache.hot-key.promote-threshold:500}") long promoteThreshold,
+                          @Value("${hmdp.cache.hot-key.demote-threshold:100}") long demoteThreshold) {
+        this.enabled = enabled;
+        this.sampleRate = Math.max(sampleRate, 1);
+        this.topK = topK;
+        this.promoteThreshold = promoteThreshold;
+        this.demoteThreshold = Math.min(demoteThreshold, promoteThreshold);
+        this.maxCandidates = topK * 8;
+    }
+
+    /**
+     * 记录一次访问（按抽样率抽样）
+     * @return key当前是否是热点key
+     */
+    public boolean record(String key) {
+        if (!enabled) {
+            return false;
+        }
+        if (sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0) {
+            long estimate = increment(key) * sampleRate;
+            if (estimate >= promoteThreshold && candidates.size() < maxCandidates) {
+                candidates.add(key);
+            }
+        }
+        return hotKeys.containsKey(key);
+    }
+
+    /**
+     * key当前是否是热点key
+     */
+    public boolean isHot(String key) {
+        return hotKeys.containsKey(key);
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    private long increment(String key) {
+        int h = key.hashCode();
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, sketch.incrementAndGet(i * WIDTH + index(h, i)));
+        }
+        return min;
+    }
+
+    private long estimate(String key) {
+        int h = key.hashCode();
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, sketch.get(i * WIDTH + index(h, i)));
+        }
+        return min * sampleRate;
+    }
+
+    /**
+     * 每行使用不同的种子打散hashCode
+     */
+    private static int index(int hash, int row) {
+        long h = (hash ^ SEEDS[row]) * 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h & (WIDTH - 1);
+    }
+
+    /**
+     * 窗口结束：重新选出热点key，清空sketch开始下一个窗口
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.hot-key.window-millis:1000}")
+    public void rotate() {
+        if (!enabled) {
+            return;
+        }
+        Map<String, Long> previous = hotKeys;
+        // 1.候选key和当前热点key一起按估算值排序，已是热点的key只需达到降级阈值
+        Set<String> keys = new HashSet<>(candidates);
+        keys.addAll(previous.keySet());
+        List<Map.Entry<String, Long>> ranked = new ArrayList<>();
+        for (String key : keys) {
+            long estimate = estimate(key);
+            long threshold = previous.containsKey(key) ? demoteThreshold : promoteThreshold;
+            if (estimate >= threshold) {
+                ranked.add(new AbstractMap.SimpleImmutableEntry<>(key, estimate));
+            }
+        }
+        ranked.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        // 2.取前K个
+        Map<String, Long> next = new LinkedHashMap<>();
+        for (int i = 0; i < ranked.size() && i < topK; i++) {
+            next.put(ranked.get(i).getKey(), ranked.get(i).getValue());
+        }
+        for (String key : next.keySet()) {
+            if (!previous.containsKey(key)) {
+                promotions.increment();
+                log.info("热点key晋升：{}，估算访问次数：{}", key, next.get(key));
+            }
+        }
+        for (String key : previous.keySet()) {
+            if (!next.containsKey(key)) {
+                demotions.increment();
+                log.info("热点key降级：{}", key);
+            }
+        }
+        hotKeys = Collections.unmodifiableMap(next);
+        // 3.清空计数，开始下一个窗口
+        candidates.clear();
+        for (int i = 0; i < sketch.length(); i++) {
+            sketch.set(i, 0);
+        }
+    }
+
+    /**
+     * 当前的热点key（按上个窗口的估算访问次数降序）和晋升、降级次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("sampleRate", sampleRate);
+        stats.put("topK", topK);
+        stats.put("promoteThreshold", promoteThreshold);
+        stats.put("demoteThreshold", demoteThreshold);
+        stats.put("promotions", promotions.sum());
+        stats.put("demotions", demotions.sum());
+        stats.put("hotKeys", hotKeys);
+        return stats;
+    }
+}
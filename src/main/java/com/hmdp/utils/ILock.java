@@ -0,0 +1,37 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁
+ */
+public interface ILock {
+
+    /**
+     * 尝试获取锁，不等待，由看门狗自动续期
+     * @return true代表获取锁成功; false代表获取锁失败
+     */
+    boolean tryLock();
+
+    /**
+     * 尝试获取锁，最多等待waitTime，由看门狗自动续期
+     * @param waitTime 最长等待时间
+     * @param unit 时间单位
+     * @return true代表获取锁成功; false代表获取锁失败
+     */
+    boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * 尝试获取锁
+     * @param waitTime 最长等待时间
+     * @param leaseTime 锁持有的超时时间，过期后自动释放；-1表示由看门狗自动续期
+     * @param unit 时间单位
+     * @return true代表获取锁成功; false代表获取锁失败
+     */
+    boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * 释放锁，只能由持有锁的线程释放
+     */
+    void unlock();
+}
@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 进程内本地缓存：基于ConcurrentHashMap，按容量和TTL淘汰
+ * 读路径无锁，超出容量时由单个线程负责清理
+ */
+public class LocalCache<K, V> {
+
+    private final ConcurrentHashMap<K, Entry<V>> map = new ConcurrentHashMap<>();
+    private final int maximumSize;
+    private final long ttlMillis;
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+
+    public LocalCache(int maximumSize, long ttlMillis) {
+        this.maximumSize = maximumSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public V get(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expireAt < System.currentTimeMillis()) {
+            // 已过期，顺手移除
+            map.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public void put(K key, V value) {
+        put(key, value, ttlMillis);
+    }
+
+    public void put(K key, V value, long ttlMillis) {
+        map.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+        if (map.size() > maximumSize) {
+            evict();
+        }
+    }
+
+    public void remove(K key) {
+        map.remove(key);
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * 先清理过期数据，仍然超出容量则淘汰一部分（ConcurrentHashMap的遍历顺序近似随机）
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            map.entrySet().removeIf(e -> e.getValue().expireAt < now);
+            int target = maximumSize - maximumSize / 10;
+            Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator();
+            while (map.size() > target && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expireAt;
+
+        private Entry(V value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
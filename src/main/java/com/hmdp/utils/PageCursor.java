@@ -0,0 +1,42 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 游标分页的游标：上一页最后一条记录的排序键和id，编码为URL安全的Base64，对客户端不透明
+ * <p>
+ * 下一页用 (排序键, id) 之后的条件直接定位（WHERE id > ? 或 score <= ?），
+ * 查询第N页的耗时不随N增长，也不需要COUNT
+ */
+public final class PageCursor {
+
+    private static final String SEPARATOR = ",";
+
+    private PageCursor() {
+    }
+
+    public static String encode(Object... parts) {
+        String raw = StrUtil.join(SEPARATOR, parts);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解码游标，空字符串表示第一页，返回null
+     * @param parts 游标包含的字段数
+     * @throws IllegalArgumentException 游标格式错误
+     */
+    public static String[] decode(String cursor, int parts) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        String[] values = raw.split(SEPARATOR, -1);
+        if (values.length != parts) {
+            throw new IllegalArgumentException("游标格式错误：" + cursor);
+        }
+        return values;
+    }
+}
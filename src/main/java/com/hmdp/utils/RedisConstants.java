@@ -5,18 +5,63 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final Long LOGIN_SESSION_TTL = 30L;
+    public static final String LOGIN_USER_TOKENS_KEY = "login:user:tokens:";
+    public static final String SESSION_INVALIDATE_TOPIC = "session:invalidate";
+    public static final String TOKEN_KEYS_KEY = "login:token:keys";
+    public static final String TOKEN_CURRENT_KEY_KEY = "login:token:keys:current";
+    public static final String TOKEN_KEY_SEQ_KEY = "login:token:keys:seq";
+    public static final String TOKEN_ROTATE_GUARD_KEY = "login:token:keys:rotating";
+    public static final Long TOKEN_ROTATE_GUARD_TTL = 60L;
+    public static final String TOKEN_KEYS_TOPIC = "login:token:keys:changed";
+    public static final String TOKEN_REVOKED_KEY = "login:token:revoked";
+    public static final String TOKEN_REVOKED_USERS_KEY = "login:token:revoked:users";
+    public static final String TOKEN_REVOKE_TOPIC = "login:token:revoke";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shop:type:version";
+    public static final String CACHE_INVALIDATE_TOPIC = "cache:invalidate";
+    public static final String CACHE_CHANGE_STREAM = "cache:change:stream";
+    public static final String CACHE_CHANGE_GROUP = "g1";
+    public static final String CACHE_CHANGE_DELAYED_KEY = "cache:change:delayed";
+    public static final String BLOOM_ADD_TOPIC = "bloom:add";
+    public static final Double BLOOM_FPP = 0.01;
+
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_CACHE_PREFIX = "lock:";
+    public static final String LOCK_ORDER_KEY = "lock:order:";
+    public static final String LOCK_CHANNEL_PREFIX = "lock:channel:";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String CACHE_SECKILL_VOUCHER_KEY = "cache:seckill:voucher:";
+    public static final Long CACHE_SECKILL_VOUCHER_TTL = 10L;
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_DELTA_KEY = "blog:liked:delta";
+    public static final String BLOG_LIKED_FLUSHING_KEY = "blog:liked:delta:flushing";
+    public static final String BLOG_LIKED_RANK_KEY = "blog:rank:liked";
+    public static final String BLOG_HOT_KEY = "blog:rank:hot";
+    public static final String CACHE_BLOG_CARD_KEY = "cache:blog:card:";
+    public static final Long CACHE_BLOG_CARD_TTL = 30L;
+    public static final String LOCK_BLOG_LIKE_FLUSH_KEY = "lock:blog:like:flush";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIG_V_KEY = "feed:bigv";
+    public static final Long FEED_MAX_SIZE = 1000L;
+    public static final String FOLLOW_KEY = "follows:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final Long USER_SIGN_TTL = 400L;
+    public static final String SIGN_DIRTY_KEY = "sign:dirty:";
+    public static final String LOCK_SIGN_ARCHIVE_KEY = "lock:sign:archive";
 }
@@ -1,12 +1,22 @@
 package com.hmdp.utils;
 
+import com.hmdp.config.ExecutorRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+@Slf4j
 @Component
 public class RedisIdWorker {
     /**
@@ -17,14 +27,45 @@ public class RedisIdWorker {
      * 序列号的位数
      */
     private static final int COUNT_BITS = 32;
+    /**
+     * 一天的秒数
+     */
+    private static final long SECONDS_PER_DAY = 86400L;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
 
     private StringRedisTemplate stringRedisTemplate;
+    /**
+     * 号段预取线程，队列满时放弃预取，号段用完时同步租用
+     */
+    private final ExecutorService segmentPrefetchExecutor;
+
+    /**
+     * 生成模式：incr 每个id一次INCR；segment 批量租用号段，在内存中分配
+     */
+    @Value("${hmdp.id.mode:incr}")
+    private String mode;
+    /**
+     * 每次租用的号段长度
+     */
+    @Value("${hmdp.id.segment-step:1000}")
+    private int segmentStep;
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    private final ConcurrentHashMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, ExecutorRegistry executorRegistry) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.segmentPrefetchExecutor = executorRegistry.create("id-segment-prefetch", 1, 64, ExecutorRegistry.Rejection.ABORT);
     }
 
     public long nextId(String keyPrefix) {
+        return "segment".equalsIgnoreCase(mode) ? nextIdBySegment(keyPrefix) : nextIdByIncr(keyPrefix);
+    }
+
+    /**
+     * 每个id执行一次INCR
+     */
+    public long nextIdByIncr(String keyPrefix) {
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
@@ -32,11 +73,142 @@ public class RedisIdWorker {
 
         // 2.生成序列号
         // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = now.format(DATE_FORMATTER);
         // 2.2.自增长
         long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
 
         // 3.拼接并返回
         return timestamp << COUNT_BITS | count;
     }
-}
\ No newline at end of file
+
+    /**
+     * 从本地号段中分配序列号，号段用完前在后台提前租用下一段
+     * id格式与nextIdByIncr一致：31位时间戳 + 32位当天序列号
+     */
+    public long nextIdBySegment(String keyPrefix) {
+        // 1.生成时间戳
+        long nowSecond = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+        long timestamp = nowSecond - BEGIN_TIMESTAMP;
+        // 2.从号段中获取当天的序列号
+        long day = nowSecond / SECONDS_PER_DAY;
+        long count = buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).next(day);
+        // 3.拼接并返回
+        return timestamp << COUNT_BITS | count;
+    }
+
+    /**
+     * 租用一个号段：INCRBY step，得到 [end - step + 1, end]
+     */
+    private Segment leaseSegment(String keyPrefix, long day) {
+        String date = LocalDate.ofEpochDay(day).format(DATE_FORMATTER);
+        Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, segmentStep);
+        if (end == null) {
+            throw new IllegalStateException("租用id号段失败：" + keyPrefix);
+        }
+        return new Segment(day, end - segmentStep + 1, end);
+    }
+
+    /**
+     * 号段
+     */
+    private static class Segment {
+        private final long day;
+        private final long min;
+        private final long max;
+        /**
+         * 分配到该位置时触发预取下一个号段（用掉80%）
+         */
+        private final long prefetchAt;
+        private final AtomicLong cursor;
+
+        private Segment(long day, long min, long max) {
+            this.day = day;
+            this.min = min;
+            this.max = max;
+            this.prefetchAt = min + (max - min + 1) * 4 / 5;
+            this.cursor = new AtomicLong(min);
+        }
+    }
+
+    /**
+     * 双号段缓冲：current用于分配，next为后台预取好的下一段
+     */
+    private class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean prefetching = new AtomicBoolean(false);
+        /**
+         * 切换号段时可能同步访问redis，使用ReentrantLock，虚拟线程等待时不会占住载体线程
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        private long next(long day) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.day == day) {
+                    // 快速路径：无锁分配
+                    long value = segment.cursor.getAndIncrement();
+                    if (value <= segment.max) {
+                        if (value == segment.prefetchAt) {
+                            prefetch(segment.day);
+                        }
+                        return value;
+                    }
+                }
+                // 慢速路径：号段用完或者跨天，切换号段
+                switchSegment(segment, day);
+            }
+        }
+
+        private void switchSegment(Segment exhausted, long day) {
+            lock.lock();
+            try {
+                if (current != exhausted) {
+                    // 其他线程已经切换过了
+                    return;
+                }
+                Segment prepared = next;
+                next = null;
+                current = prepared != null && prepared.day == day ? prepared : leaseSegment(keyPrefix, day);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void prefetch(long day) {
+            if (!prefetching.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                segmentPrefetchExecutor.execute(() -> {
+                    try {
+                        Segment segment = leaseSegment(keyPrefix, day);
+                        lock.lock();
+                        try {
+                            // 预取期间当前号段可能已经同步租用了更靠后的号段，这时丢弃预取结果，保证id递增
+                            Segment cur = current;
+                            if (next == null && (cur == null || cur.day != segment.day || segment.min > cur.max)) {
+                                next = segment;
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                    } catch (Exception e) {
+                        // 预取失败不影响分配，号段用完时会同步租用
+                        log.error("预取id号段失败，keyPrefix：{}", keyPrefix, e);
+                    } finally {
+                        prefetching.set(false);
+                    }
+                });
+            } catch (RuntimeException e) {
+                prefetching.set(false);
+                log.error("提交id号段预取任务失败，keyPrefix：{}", keyPrefix, e);
+            }
+        }
+    }
+}
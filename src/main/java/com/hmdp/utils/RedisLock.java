@@ -0,0 +1,109 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_CHANNEL_PREFIX;
+
+/**
+ * 基于redis的可重入分布式锁
+ * <p>
+ * 1.持有者标识为 节点id:线程id，释放时通过lua脚本比较持有者后再删除
+ * 2.未指定租期时由看门狗定期续期
+ * 3.获取失败时订阅解锁通知，在等待时间内被唤醒后重试，而不是休眠轮询
+ */
+public class RedisLock implements ILock {
+
+    private final String key;
+    private final String channel;
+    private final RedisLockFactory factory;
+
+    RedisLock(String key, RedisLockFactory factory) {
+        this.key = key;
+        this.channel = LOCK_CHANNEL_PREFIX + key;
+        this.factory = factory;
+    }
+
+    @Override
+    public boolean tryLock() {
+        String owner = factory.currentOwner();
+        Long ttl = tryAcquire(owner, RedisLockFactory.WATCHDOG_LEASE_MILLIS);
+        if (ttl == null) {
+            factory.scheduleRenewal(key, owner);
+            factory.recordAcquire(0, false);
+            return true;
+        }
+        factory.recordFailure(0);
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException {
+        return tryLock(waitTime, -1, unit);
+    }
+
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) throws InterruptedException {
+        String owner = factory.currentOwner();
+        boolean watchdog = leaseTime == -1;
+        long leaseMillis = watchdog ? RedisLockFactory.WATCHDOG_LEASE_MILLIS : unit.toMillis(leaseTime);
+        long begin = System.nanoTime();
+        long deadline = begin + unit.toNanos(waitTime);
+
+        //1.先登记等待再尝试，第一次尝试失败后、登记之前发布的解锁通知不会丢失
+        Semaphore semaphore = factory.beginWait(key);
+        try {
+            Long ttl = tryAcquire(owner, leaseMillis);
+            if (ttl == null) {
+                acquired(owner, watchdog, begin, false);
+                return true;
+            }
+            //2.获取失败，收到解锁通知或锁过期后重试
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    factory.recordFailure(System.nanoTime() - begin);
+                    return false;
+                }
+                long waitNanos = ttl >= 0 ? Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(ttl)) : remaining;
+                semaphore.tryAcquire(waitNanos, TimeUnit.NANOSECONDS);
+                ttl = tryAcquire(owner, leaseMillis);
+                if (ttl == null) {
+                    acquired(owner, watchdog, begin, true);
+                    return true;
+                }
+            }
+        } finally {
+            factory.endWait(key);
+        }
+    }
+
+    @Override
+    public void unlock() {
+        String owner = factory.currentOwner();
+        Long result = factory.getStringRedisTemplate().execute(RedisLockFactory.UNLOCK_SCRIPT,
+                Arrays.asList(key, channel), owner, String.valueOf(RedisLockFactory.WATCHDOG_LEASE_MILLIS));
+        if (result == null || result == -1) {
+            factory.cancelRenewal(key, owner);
+            throw new IllegalMonitorStateException("当前线程未持有锁：" + key);
+        }
+        if (result == 1) {
+            // 锁已完全释放，停止续期
+            factory.cancelRenewal(key, owner);
+        }
+    }
+
+    private Long tryAcquire(String owner, long leaseMillis) {
+        return factory.getStringRedisTemplate().execute(RedisLockFactory.LOCK_SCRIPT,
+                Collections.singletonList(key), owner, String.valueOf(leaseMillis));
+    }
+
+    private void acquired(String owner, boolean watchdog, long begin, boolean contended) {
+        if (watchdog) {
+            factory.scheduleRenewal(key, owner);
+        }
+        factory.recordAcquire(System.nanoTime() - begin, contended);
+    }
+}
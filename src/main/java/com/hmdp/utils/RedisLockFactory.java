@@ -0,0 +1,191 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.LOCK_CHANNEL_PREFIX;
+
+/**
+ * 分布式锁工厂：负责创建锁，并管理所有锁共享的看门狗、解锁通知订阅和监控指标
+ */
+@Slf4j
+@Component
+public class RedisLockFactory {
+
+    /**
+     * 看门狗模式下的默认租期
+     */
+    static final long WATCHDOG_LEASE_MILLIS = 30000L;
+
+    static final DefaultRedisScript<Long> LOCK_SCRIPT;
+    static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("lua/lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("lua/unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("lua/renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    /**
+     * 当前节点的唯一标识，和线程id一起组成锁的持有者标识
+     */
+    private final String nodeId = UUID.randomUUID().toString(true);
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "redis-lock-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+    /**
+     * 正在续期的锁，key为 锁key + 持有者标识
+     */
+    private final ConcurrentHashMap<String, ScheduledFuture<?>> renewals = new ConcurrentHashMap<>();
+    /**
+     * 正在等待的锁，收到解锁通知后唤醒等待线程
+     */
+    private final ConcurrentHashMap<String, Waiters> waiters = new ConcurrentHashMap<>();
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public RedisLockFactory(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        // 订阅所有锁的解锁通知
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+            Waiters w = waiters.get(channel.substring(LOCK_CHANNEL_PREFIX.length()));
+            if (w != null) {
+                w.semaphore.release();
+            }
+        }, new PatternTopic(LOCK_CHANNEL_PREFIX + "*"));
+    }
+
+    /**
+     * 获取一把可重入的分布式锁
+     * @param key 锁的完整key，例如 lock:shop:1
+     */
+    public ILock getLock(String key) {
+        return new RedisLock(key, this);
+    }
+
+    StringRedisTemplate getStringRedisTemplate() {
+        return stringRedisTemplate;
+    }
+
+    String currentOwner() {
+        return nodeId + ":" + Thread.currentThread().getId();
+    }
+
+    Semaphore beginWait(String key) {
+        return waiters.compute(key, (k, w) -> {
+            if (w == null) {
+                w = new Waiters();
+            }
+            w.count++;
+            return w;
+        }).semaphore;
+    }
+
+    void endWait(String key) {
+        waiters.computeIfPresent(key, (k, w) -> --w.count == 0 ? null : w);
+    }
+
+    void scheduleRenewal(String key, String owner) {
+        renewals.computeIfAbsent(key + "#" + owner, k -> watchdog.scheduleAtFixedRate(() -> {
+            try {
+                Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(key),
+                        owner, String.valueOf(WATCHDOG_LEASE_MILLIS));
+                if (renewed == null || renewed == 0) {
+                    // 锁已经不属于自己了，停止续期
+                    cancelRenewal(key, owner);
+                }
+            } catch (Exception e) {
+                log.error("锁续期失败，key：{}", key, e);
+            }
+        }, WATCHDOG_LEASE_MILLIS / 3, WATCHDOG_LEASE_MILLIS / 3, TimeUnit.MILLISECONDS));
+    }
+
+    void cancelRenewal(String key, String owner) {
+        ScheduledFuture<?> future = renewals.remove(key + "#" + owner);
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    void recordAcquire(long waitedNanos, boolean wasContended) {
+        acquired.increment();
+        recordWait(waitedNanos, wasContended);
+    }
+
+    void recordFailure(long waitedNanos) {
+        failures.increment();
+        recordWait(waitedNanos, true);
+    }
+
+    private void recordWait(long waitedNanos, boolean wasContended) {
+        if (wasContended) {
+            contended.increment();
+        }
+        waitNanos.add(waitedNanos);
+        maxWaitNanos.accumulateAndGet(waitedNanos, Math::max);
+    }
+
+    /**
+     * 锁的监控指标：获取次数、竞争次数、失败次数、等待时间
+     */
+    public Map<String, Object> stats() {
+        long acquiredCount = acquired.sum();
+        long failureCount = failures.sum();
+        long total = acquiredCount + failureCount;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("acquired", acquiredCount);
+        stats.put("contended", contended.sum());
+        stats.put("failed", failureCount);
+        stats.put("avgWaitMillis", total == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos.sum()) / (double) total);
+        stats.put("maxWaitMillis", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+        stats.put("renewing", renewals.size());
+        stats.put("waiting", waiters.size());
+        return stats;
+    }
+
+    @PreDestroy
+    private void destroy() {
+        watchdog.shutdownNow();
+    }
+
+    private static class Waiters {
+        private final Semaphore semaphore = new Semaphore(0);
+        private int count;
+    }
+}
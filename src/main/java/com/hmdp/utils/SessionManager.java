@@ -0,0 +1,258 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.lang.UUID;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录会话：token -> UserDTO
+ * <p>
+ * 会话保存在redis的hash中，本地缓存解析好的UserDTO，大部分请求不访问redis；
+ * 滑动过期的EXPIRE每个token在一个刷新周期内最多执行一次，并且定时批量通过pipeline执行；
+ * 登出时广播失效消息，所有节点清理本地缓存
+ * <p>
+ * token-mode为signed时签发自包含的签名令牌，校验只需要CPU，见{@link SignedTokenCodec}；
+ * 两种令牌可以同时存在，切换模式时已登录的用户不受影响
+ */
+@Slf4j
+@Component
+public class SessionManager {
+
+    /**
+     * 本地缓存中不存在的token的占位
+     */
+    private static final UserDTO EMPTY = new UserDTO();
+
+    private static final int FLUSH_BATCH_SIZE = 500;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SignedTokenCodec signedTokenCodec;
+    /**
+     * 签发令牌的模式：redis 随机token，会话存放在redis；signed 自包含的签名令牌
+     */
+    private final boolean signedMode;
+
+    private final LocalCache<String, UserDTO> localSessions;
+    /**
+     * 刷新周期内已经登记过刷新的token，过期后才会再次登记
+     */
+    private final LocalCache<String, Boolean> refreshedTokens;
+    /**
+     * 等待批量刷新过期时间的token及其用户id，用户id用于同时刷新用户的token集合
+     */
+    private final ConcurrentHashMap<String, Long> pendingRefresh = new ConcurrentHashMap<>();
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder localMisses = new LongAdder();
+    private final LongAdder refreshed = new LongAdder();
+    private final LongAdder refreshBatches = new LongAdder();
+
+    public SessionManager(StringRedisTemplate stringRedisTemplate,
+                          SignedTokenCodec signedTokenCodec,
+                          RedisMessageListenerContainer listenerContainer,
+                          @Value("${hmdp.session.token-mode:redis}") String tokenMode,
+                          @Value("${hmdp.session.local.maximum-size:100000}") int localMaximumSize,
+                          @Value("${hmdp.session.local.ttl-seconds:10}") long localTtlSeconds,
+                          @Value("${hmdp.session.refresh-interval-seconds:60}") long refreshIntervalSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.signedTokenCodec = signedTokenCodec;
+        this.signedMode = "signed".equalsIgnoreCase(tokenMode);
+        this.localSessions = new LocalCache<>(localMaximumSize, TimeUnit.SECONDS.toMillis(localTtlSeconds));
+        this.refreshedTokens = new LocalCache<>(localMaximumSize, TimeUnit.SECONDS.toMillis(refreshIntervalSeconds));
+        // 订阅会话失效广播
+        listenerContainer.addMessageListener((message, pattern) ->
+                        localSessions.remove(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(SESSION_INVALIDATE_TOPIC));
+    }
+
+    /**
+     * 创建会话
+     * @return token
+     */
+    public String create(UserDTO userDTO) {
+        if (signedMode) {
+            return signedTokenCodec.issue(userDTO);
+        }
+        //1.随机生成token，作为登录令牌
+        String token = UUID.randomUUID().toString(true);
+        //2.将用户对象转为Map
+        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
+                CopyOptions.create()
+                        .setIgnoreNullValue(true)
+                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString())
+        );
+        //3.存储到redis中-hash，并记录用户的token，用于封禁时踢下线
+        String key = LOGIN_USER_KEY + token;
+        String tokensKey = LOGIN_USER_TOKENS_KEY + userDTO.getId();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMSet(key, toStringMap(userMap));
+            conn.expire(key, TimeUnit.MINUTES.toSeconds(LOGIN_SESSION_TTL));
+            conn.sAdd(tokensKey, token);
+            conn.expire(tokensKey, TimeUnit.MINUTES.toSeconds(LOGIN_SESSION_TTL));
+            return null;
+        });
+        return token;
+    }
+
+    /**
+     * 根据token查询登录用户，会话存在时登记一次滑动过期
+     * @return 登录用户，会话不存在时返回null
+     */
+    public UserDTO get(String token) {
+        if (signedTokenCodec.isSignedToken(token)) {
+            return signedTokenCodec.verify(token);
+        }
+        //1.查询本地缓存
+        UserDTO userDTO = localSessions.get(token);
+        if (userDTO != null) {
+            localHits.increment();
+        } else {
+            //2.未命中，查询redis
+            localMisses.increment();
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(LOGIN_USER_KEY + token);
+            userDTO = entries.isEmpty() ? EMPTY : BeanUtil.fillBeanWithMap(entries, new UserDTO(), false);
+            localSessions.put(token, userDTO);
+        }
+        if (userDTO == EMPTY) {
+            return null;
+        }
+        //3.登记刷新过期时间
+        touch(token, userDTO.getId());
+        return userDTO;
+    }
+
+    private void touch(String token, Long userId) {
+        if (refreshedTokens.get(token) != null) {
+            return;
+        }
+        refreshedTokens.put(token, Boolean.TRUE);
+        if (userId != null) {
+            pendingRefresh.put(token, userId);
+        }
+    }
+
+    /**
+     * 批量刷新会话的过期时间
+     */
+    @Scheduled(fixedDelayString = "${hmdp.session.flush-interval-millis:1000}")
+    public void flushRefresh() {
+        if (pendingRefresh.isEmpty()) {
+            return;
+        }
+        Map<String, Long> batch = new HashMap<>(FLUSH_BATCH_SIZE * 2);
+        for (String token : pendingRefresh.keySet()) {
+            Long userId = pendingRefresh.remove(token);
+            if (userId == null) {
+                continue;
+            }
+            batch.put(token, userId);
+            if (batch.size() >= FLUSH_BATCH_SIZE) {
+                expireBatch(batch);
+                batch = new HashMap<>(FLUSH_BATCH_SIZE * 2);
+            }
+        }
+        if (!batch.isEmpty()) {
+            expireBatch(batch);
+        }
+    }
+
+    /**
+     * 刷新会话和用户token集合的过期时间，token集合与最后活跃的会话同时过期，封禁时才能找到所有会话
+     */
+    private void expireBatch(Map<String, Long> tokens) {
+        try {
+            long seconds = TimeUnit.MINUTES.toSeconds(LOGIN_SESSION_TTL);
+            Set<Long> userIds = new HashSet<>(tokens.values());
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (String token : tokens.keySet()) {
+                    conn.expire(LOGIN_USER_KEY + token, seconds);
+                }
+                for (Long userId : userIds) {
+                    conn.expire(LOGIN_USER_TOKENS_KEY + userId, seconds);
+                }
+                return null;
+            });
+            refreshed.add(tokens.size());
+            refreshBatches.increment();
+        } catch (Exception e) {
+            // 刷新失败的token下次访问时重新登记
+            tokens.keySet().forEach(refreshedTokens::remove);
+            log.error("批量刷新会话过期时间失败，数量：{}", tokens.size(), e);
+        }
+    }
+
+    /**
+     * 使会话失效（登出），并通知所有节点清理本地缓存
+     */
+    public void invalidate(String token) {
+        if (signedTokenCodec.isSignedToken(token)) {
+            signedTokenCodec.revoke(token);
+            return;
+        }
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        localSessions.remove(token);
+        refreshedTokens.remove(token);
+        pendingRefresh.remove(token);
+        stringRedisTemplate.convertAndSend(SESSION_INVALIDATE_TOPIC, token);
+    }
+
+    /**
+     * 使用户的全部会话失效（封禁、修改密码等）
+     */
+    public void invalidateUser(Long userId) {
+        String tokensKey = LOGIN_USER_TOKENS_KEY + userId;
+        Set<String> tokens = stringRedisTemplate.opsForSet().members(tokensKey);
+        if (tokens != null) {
+            tokens.forEach(this::invalidate);
+        }
+        stringRedisTemplate.delete(tokensKey);
+        signedTokenCodec.revokeUser(userId);
+    }
+
+    /**
+     * 本地缓存命中率和过期时间的刷新次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hits = localHits.sum();
+        long misses = localMisses.sum();
+        stats.put("localSize", localSessions.size());
+        stats.put("localHits", hits);
+        stats.put("localMisses", misses);
+        stats.put("localHitRate", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+        stats.put("pendingRefresh", pendingRefresh.size());
+        stats.put("refreshed", refreshed.sum());
+        stats.put("refreshBatches", refreshBatches.sum());
+        return stats;
+    }
+
+    private static Map<String, String> toStringMap(Map<String, Object> map) {
+        Map<String, String> result = new HashMap<>(map.size());
+        map.forEach((k, v) -> result.put(k, v.toString()));
+        return result;
+    }
+}
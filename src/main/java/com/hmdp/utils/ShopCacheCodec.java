@@ -0,0 +1,99 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.springframework.stereotype.Component;
+
+/**
+ * 店铺的二进制编码：varint位图标记非空字段，之后按顺序写入非空字段的值
+ */
+@Component
+public class ShopCacheCodec implements CacheCodec<Shop> {
+
+    private static final int ID = 1;
+    private static final int NAME = 1 << 1;
+    private static final int TYPE_ID = 1 << 2;
+    private static final int IMAGES = 1 << 3;
+    private static final int AREA = 1 << 4;
+    private static final int ADDRESS = 1 << 5;
+    private static final int X = 1 << 6;
+    private static final int Y = 1 << 7;
+    private static final int AVG_PRICE = 1 << 8;
+    private static final int SOLD = 1 << 9;
+    private static final int COMMENTS = 1 << 10;
+    private static final int SCORE = 1 << 11;
+    private static final int OPEN_HOURS = 1 << 12;
+    private static final int CREATE_TIME = 1 << 13;
+    private static final int UPDATE_TIME = 1 << 14;
+    private static final int DISTANCE = 1 << 15;
+
+    @Override
+    public Class<Shop> type() {
+        return Shop.class;
+    }
+
+    @Override
+    public int version() {
+        return 1;
+    }
+
+    @Override
+    public void encode(Shop shop, Writer out) {
+        int mask = 0;
+        if (shop.getId() != null) mask |= ID;
+        if (shop.getName() != null) mask |= NAME;
+        if (shop.getTypeId() != null) mask |= TYPE_ID;
+        if (shop.getImages() != null) mask |= IMAGES;
+        if (shop.getArea() != null) mask |= AREA;
+        if (shop.getAddress() != null) mask |= ADDRESS;
+        if (shop.getX() != null) mask |= X;
+        if (shop.getY() != null) mask |= Y;
+        if (shop.getAvgPrice() != null) mask |= AVG_PRICE;
+        if (shop.getSold() != null) mask |= SOLD;
+        if (shop.getComments() != null) mask |= COMMENTS;
+        if (shop.getScore() != null) mask |= SCORE;
+        if (shop.getOpenHours() != null) mask |= OPEN_HOURS;
+        if (shop.getCreateTime() != null) mask |= CREATE_TIME;
+        if (shop.getUpdateTime() != null) mask |= UPDATE_TIME;
+        if (shop.getDistance() != null) mask |= DISTANCE;
+        out.writeVarLong(mask);
+        if ((mask & ID) != 0) out.writeZigZag(shop.getId());
+        if ((mask & NAME) != 0) out.writeString(shop.getName());
+        if ((mask & TYPE_ID) != 0) out.writeZigZag(shop.getTypeId());
+        if ((mask & IMAGES) != 0) out.writeString(shop.getImages());
+        if ((mask & AREA) != 0) out.writeString(shop.getArea());
+        if ((mask & ADDRESS) != 0) out.writeString(shop.getAddress());
+        if ((mask & X) != 0) out.writeDouble(shop.getX());
+        if ((mask & Y) != 0) out.writeDouble(shop.getY());
+        if ((mask & AVG_PRICE) != 0) out.writeZigZag(shop.getAvgPrice());
+        if ((mask & SOLD) != 0) out.writeZigZag(shop.getSold());
+        if ((mask & COMMENTS) != 0) out.writeZigZag(shop.getComments());
+        if ((mask & SCORE) != 0) out.writeZigZag(shop.getScore());
+        if ((mask & OPEN_HOURS) != 0) out.writeString(shop.getOpenHours());
+        if ((mask & CREATE_TIME) != 0) out.writeDateTime(shop.getCreateTime());
+        if ((mask & UPDATE_TIME) != 0) out.writeDateTime(shop.getUpdateTime());
+        if ((mask & DISTANCE) != 0) out.writeDouble(shop.getDistance());
+    }
+
+    @Override
+    public Shop decode(Reader in, int version) {
+        int mask = (int) in.readVarLong();
+        Shop shop = new Shop();
+        if ((mask & ID) != 0) shop.setId(in.readZigZag());
+        if ((mask & NAME) != 0) shop.setName(in.readString());
+        if ((mask & TYPE_ID) != 0) shop.setTypeId(in.readZigZag());
+        if ((mask & IMAGES) != 0) shop.setImages(in.readString());
+        if ((mask & AREA) != 0) shop.setArea(in.readString());
+        if ((mask & ADDRESS) != 0) shop.setAddress(in.readString());
+        if ((mask & X) != 0) shop.setX(in.readDouble());
+        if ((mask & Y) != 0) shop.setY(in.readDouble());
+        if ((mask & AVG_PRICE) != 0) shop.setAvgPrice(in.readZigZag());
+        if ((mask & SOLD) != 0) shop.setSold((int) in.readZigZag());
+        if ((mask & COMMENTS) != 0) shop.setComments((int) in.readZigZag());
+        if ((mask & SCORE) != 0) shop.setScore((int) in.readZigZag());
+        if ((mask & OPEN_HOURS) != 0) shop.setOpenHours(in.readString());
+        if ((mask & CREATE_TIME) != 0) shop.setCreateTime(in.readDateTime());
+        if ((mask & UPDATE_TIME) != 0) shop.setUpdateTime(in.readDateTime());
+        if ((mask & DISTANCE) != 0) shop.setDistance(in.readDouble());
+        return shop;
+    }
+}
@@ -0,0 +1,393 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 店铺搜索的进程内倒排索引，索引店铺名称、商圈和地址，代替 LIKE '%name%' 的全表扫描
+ * <p>
+ * 分词：中文按单字和相邻两字（2-gram）切分，字母数字按单词切分并索引单词的前缀，因此支持前缀（输入联想）查询。
+ * 查询时取所有词项倒排列表的交集，再用子串匹配过滤掉词项不连续的结果；
+ * 排序依次为相关度（名称 > 商圈 > 地址，名称前缀匹配加分）、评分、销量
+ */
+@Slf4j
+@Component
+public class ShopSearchIndex {
+
+    /**
+     * 字母数字单词最多索引的前缀长度，更长的查询词截断后匹配，再由子串匹配过滤
+     */
+    private static final int MAX_PREFIX_LENGTH = 12;
+    private static final Shop REMOVED = new Shop();
+
+    private volatile Index index = new Index();
+    private volatile boolean ready = false;
+    private volatile long lastBuildMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * 全量重建期间的增量更新，重建完成后重放到新索引上，guarded by lock
+     */
+    private Map<Long, Shop> pending;
+
+    /**
+     * 索引中的一个店铺，文本字段为小写后的值
+     */
+    private static class Doc {
+        private final Long id;
+        private final String displayName;
+        private final String name;
+        private final String area;
+        private final String address;
+        private final int score;
+        private final int sold;
+        private final Set<String> tokens;
+
+        private Doc(Shop shop) {
+            this.id = shop.getId();
+            this.displayName = shop.getName() == null ? "" : shop.getName();
+            this.name = normalize(shop.getName());
+            this.area = normalize(shop.getArea());
+            this.address = normalize(shop.getAddress());
+            this.score = shop.getScore() == null ? 0 : shop.getScore();
+            this.sold = shop.getSold() == null ? 0 : shop.getSold();
+            Set<String> tokens = new LinkedHashSet<>();
+            indexTokens(name, tokens);
+            indexTokens(area, tokens);
+            indexTokens(address, tokens);
+            this.tokens = tokens;
+        }
+    }
+
+    private static class Index {
+        private final ConcurrentHashMap<String, Set<Long>> postings = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Long, Doc> docs = new ConcurrentHashMap<>();
+
+        private void put(Shop shop) {
+            remove(shop.getId());
+            Doc doc = new Doc(shop);
+            docs.put(doc.id, doc);
+            for (String token : doc.tokens) {
+                postings.computeIfAbsent(token, k -> ConcurrentHashMap.newKeySet()).add(doc.id);
+            }
+        }
+
+        private void remove(Long id) {
+            Doc old = docs.remove(id);
+            if (old == null) {
+                return;
+            }
+            for (String token : old.tokens) {
+                postings.computeIfPresent(token, (k, ids) -> {
+                    ids.remove(id);
+                    return ids.isEmpty() ? null : ids;
+                });
+            }
+        }
+    }
+
+    /**
+     * 索引是否已完成首次构建，构建完成前调用方应回退到数据库查询
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 新增或更新一个店铺，店铺需要包含名称、商圈、地址、评分和销量
+     */
+    public void put(Shop shop) {
+        lock.lock();
+        try {
+            index.put(shop);
+            if (pending != null) {
+                pending.put(shop.getId(), shop);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(Long id) {
+        lock.lock();
+        try {
+            index.remove(id);
+            if (pending != null) {
+                pending.put(id, REMOVED);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 流式全量重建：按id游标分批加载，构建完成后整体替换，期间的增量更新不会丢失
+     * @param batchLoader 上一批最大的id -> 下一批店铺（按id升序），没有更多时返回空集合
+     */
+    public void rebuild(Function<Long, List<Shop>> batchLoader) {
+        long begin = System.currentTimeMillis();
+        lock.lock();
+        try {
+            pending = new HashMap<>();
+        } finally {
+            lock.unlock();
+        }
+        Index fresh = new Index();
+        try {
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = batchLoader.apply(lastId);
+                if (shops == null || shops.isEmpty()) {
+                    break;
+                }
+                shops.forEach(fresh::put);
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                pending = null;
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+        lock.lock();
+        try {
+            pending.forEach((id, shop) -> {
+                if (shop == REMOVED) {
+                    fresh.remove(id);
+                } else {
+                    fresh.put(shop);
+                }
+            });
+            pending = null;
+            index = fresh;
+            ready = true;
+        } finally {
+            lock.unlock();
+        }
+        lastBuildMillis = System.currentTimeMillis() - begin;
+        log.info("店铺搜索索引构建完成，店铺数：{}，词项数：{}，耗时：{}ms",
+                fresh.docs.size(), fresh.postings.size(), lastBuildMillis);
+    }
+
+    /**
+     * 搜索店铺
+     * @param query 关键字，多个关键字用空格分隔，每个关键字都要出现在名称、商圈或地址中
+     * @param from 跳过的条数
+     * @param size 返回的条数
+     * @return 按相关度、评分、销量排序的店铺id
+     */
+    public List<Long> search(String query, int from, int size) {
+        List<Doc> docs = topDocs(query, from + size);
+        List<Long> ids = new ArrayList<>(Math.max(docs.size() - from, 0));
+        for (int i = from; i < docs.size(); i++) {
+            ids.add(docs.get(i).id);
+        }
+        return ids;
+    }
+
+    /**
+     * 输入联想：返回匹配前缀的店铺名称，去重
+     */
+    public List<String> suggest(String prefix, int limit) {
+        Set<String> names = new LinkedHashSet<>();
+        for (Doc doc : topDocs(prefix, limit * 2)) {
+            names.add(doc.displayName);
+            if (names.size() >= limit) {
+                break;
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    public Map<String, Object> stats() {
+        Index current = index;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("docs", current.docs.size());
+        stats.put("tokens", current.postings.size());
+        stats.put("lastBuildMillis", lastBuildMillis);
+        return stats;
+    }
+
+    private List<Doc> topDocs(String query, int limit) {
+        String normalized = normalize(query);
+        String[] terms = normalized.trim().split("\\s+");
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String term : terms) {
+            queryTokens(term, tokens);
+        }
+        if (tokens.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        Index current = index;
+        // 1.从最短的倒排列表开始求交集
+        List<Set<Long>> lists = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            Set<Long> ids = current.postings.get(token);
+            if (ids == null) {
+                return Collections.emptyList();
+            }
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(Set::size));
+        // 2.过滤、打分，只保留前limit个
+        Comparator<Scored> order = Comparator.<Scored>comparingInt(s -> s.relevance)
+                .thenComparingInt(s -> s.doc.score)
+                .thenComparingInt(s -> s.doc.sold)
+                .thenComparing(s -> -s.doc.id);
+        PriorityQueue<Scored> top = new PriorityQueue<>(limit + 1, order);
+        outer:
+        for (Long id : lists.get(0)) {
+            for (int i = 1; i < lists.size(); i++) {
+                if (!lists.get(i).contains(id)) {
+                    continue outer;
+                }
+            }
+            Doc doc = current.docs.get(id);
+            int relevance = doc == null ? -1 : relevance(doc, normalized.trim(), terms);
+            if (relevance < 0) {
+                continue;
+            }
+            top.offer(new Scored(doc, relevance));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<Doc> docs = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            docs.add(top.poll().doc);
+        }
+        Collections.reverse(docs);
+        return docs;
+    }
+
+    private static class Scored {
+        private final Doc doc;
+        private final int relevance;
+
+        private Scored(Doc doc, int relevance) {
+            this.doc = doc;
+            this.relevance = relevance;
+        }
+    }
+
+    /**
+     * 相关度，有关键字不是任何字段的子串时返回-1
+     */
+    private static int relevance(Doc doc, String query, String[] terms) {
+        int relevance = doc.name.equals(query) ? 10 : 0;
+        for (String term : terms) {
+            int r = 0;
+            if (doc.name.contains(term)) {
+                r += doc.name.startsWith(term) ? 6 : 4;
+            }
+            if (doc.area.contains(term)) {
+                r += 2;
+            }
+            if (doc.address.contains(term)) {
+                r += 1;
+            }
+            if (r == 0) {
+                return -1;
+            }
+            relevance += r;
+        }
+        return relevance;
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase();
+    }
+
+    /**
+     * 索引的词项：中文单字和2-gram，字母数字单词的前缀
+     */
+    static void indexTokens(String text, Set<String> out) {
+        int i = 0;
+        while (i < text.length()) {
+            int cp = text.codePointAt(i);
+            if (Character.isIdeographic(cp)) {
+                int next = i + Character.charCount(cp);
+                out.add(new String(Character.toChars(cp)));
+                if (next < text.length() && Character.isIdeographic(text.codePointAt(next))) {
+                    out.add(text.substring(i, next + Character.charCount(text.codePointAt(next))));
+                }
+                i = next;
+            } else if (Character.isLetterOrDigit(cp)) {
+                int end = wordEnd(text, i);
+                for (int len = 1; len <= Math.min(end - i, MAX_PREFIX_LENGTH); len++) {
+                    out.add(text.substring(i, i + len));
+                }
+                i = end;
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+    }
+
+    /**
+     * 查询的词项：中文连续两个字以上用2-gram，单字用单字；字母数字单词用单词本身匹配索引中的前缀
+     */
+    static void queryTokens(String text, Set<String> out) {
+        int i = 0;
+        while (i < text.length()) {
+            int cp = text.codePointAt(i);
+            if (Character.isIdeographic(cp)) {
+                int end = i;
+                while (end < text.length() && Character.isIdeographic(text.codePointAt(end))) {
+                    end += Character.charCount(text.codePointAt(end));
+                }
+                if (text.codePointCount(i, end) == 1) {
+                    out.add(text.substring(i, end));
+                } else {
+                    for (int j = i; j < end; ) {
+                        int first = Character.charCount(text.codePointAt(j));
+                        if (j + first >= end) {
+                            break;
+                        }
+                        int second = Character.charCount(text.codePointAt(j + first));
+                        out.add(text.substring(j, j + first + second));
+                        j += first;
+                    }
+                }
+                i = end;
+            } else if (Character.isLetterOrDigit(cp)) {
+                int end = wordEnd(text, i);
+                out.add(text.substring(i, Math.min(end, i + MAX_PREFIX_LENGTH)));
+                i = end;
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+    }
+
+    private static int wordEnd(String text, int begin) {
+        int end = begin;
+        while (end < text.length()) {
+            int cp = text.codePointAt(end);
+            if (!Character.isLetterOrDigit(cp) || Character.isIdeographic(cp)) {
+                break;
+            }
+            end += Character.charCount(cp);
+        }
+        return end;
+    }
+}
@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.ShopType;
+import org.springframework.stereotype.Component;
+
+/**
+ * 店铺类型的二进制编码，格式同{@link ShopCacheCodec}
+ */
+@Component
+public class ShopTypeCacheCodec implements CacheCodec<ShopType> {
+
+    private static final int ID = 1;
+    private static final int NAME = 1 << 1;
+    private static final int ICON = 1 << 2;
+    private static final int SORT = 1 << 3;
+    private static final int CREATE_TIME = 1 << 4;
+    private static final int UPDATE_TIME = 1 << 5;
+
+    @Override
+    public Class<ShopType> type() {
+        return ShopType.class;
+    }
+
+    @Override
+    public int version() {
+        return 1;
+    }
+
+    @Override
+    public void encode(ShopType type, Writer out) {
+        int mask = 0;
+        if (type.getId() != null) mask |= ID;
+        if (type.getName() != null) mask |= NAME;
+        if (type.getIcon() != null) mask |= ICON;
+        if (type.getSort() != null) mask |= SORT;
+        if (type.getCreateTime() != null) mask |= CREATE_TIME;
+        if (type.getUpdateTime() != null) mask |= UPDATE_TIME;
+        out.writeVarLong(mask);
+        if ((mask & ID) != 0) out.writeZigZag(type.getId());
+        if ((mask & NAME) != 0) out.writeString(type.getName());
+        if ((mask & ICON) != 0) out.writeString(type.getIcon());
+        if ((mask & SORT) != 0) out.writeZigZag(type.getSort());
+        if ((mask & CREATE_TIME) != 0) out.writeDateTime(type.getCreateTime());
+        if ((mask & UPDATE_TIME) != 0) out.writeDateTime(type.getUpdateTime());
+    }
+
+    @Override
+    public ShopType decode(Reader in, int version) {
+        int mask = (int) in.readVarLong();
+        ShopType type = new ShopType();
+        if ((mask & ID) != 0) type.setId(in.readZigZag());
+        if ((mask & NAME) != 0) type.setName(in.readString());
+        if ((mask & ICON) != 0) type.setIcon(in.readString());
+        if ((mask & SORT) != 0) type.setSort((int) in.readZigZag());
+        if ((mask & CREATE_TIME) != 0) type.setCreateTime(in.readDateTime());
+        if ((mask & UPDATE_TIME) != 0) type.setUpdateTime(in.readDateTime());
+        return type;
+    }
+}
@@ -0,0 +1,359 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 自包含的签名令牌：用户信息 + 过期时间编码在令牌中，用HMAC-SHA256签名，校验时只需要CPU
+ * <p>
+ * 令牌格式：base64url(载荷).base64url(签名)，载荷中带有签名密钥的编号，
+ * 密钥保存在redis中，各节点定时同步，轮换后旧密钥保留一段时间，用旧密钥签发的令牌仍然有效；
+ * 吊销的令牌和用户记在redis的zset中，本地用布隆过滤器判断，只有可能被吊销时才访问redis
+ */
+@Slf4j
+@Component
+public class SignedTokenCodec {
+
+    private static final byte VERSION = 1;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String USER_PREFIX = "u:";
+    /**
+     * 轮换后保留的旧密钥数量
+     */
+    private static final int RETAINED_KEYS = 2;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final long ttlSeconds;
+
+    private volatile Map<Integer, SigningKey> keys = new HashMap<>();
+    private volatile SigningKey currentKey;
+
+    /**
+     * 已吊销的令牌id和用户的布隆过滤器，重建期间的新增同时写入building
+     */
+    private volatile BloomFilter revoked = new BloomFilter(10000, BLOOM_FPP);
+    private volatile BloomFilter building;
+    /**
+     * 新增吊销与过滤器的切换互斥，避免新增只写入被替换掉的旧过滤器
+     */
+    private final Object revokedLock = new Object();
+
+    public SignedTokenCodec(StringRedisTemplate stringRedisTemplate,
+                            RedisMessageListenerContainer listenerContainer,
+                            @Value("${hmdp.session.signed.ttl-minutes:1440}") long ttlMinutes) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.ttlSeconds = TimeUnit.MINUTES.toSeconds(ttlMinutes);
+        listenerContainer.addMessageListener((message, pattern) ->
+                        putRevoked(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(TOKEN_REVOKE_TOPIC));
+        listenerContainer.addMessageListener((message, pattern) -> refreshKeys(),
+                new ChannelTopic(TOKEN_KEYS_TOPIC));
+    }
+
+    @PostConstruct
+    private void init() {
+        // 还没有密钥时创建第一个，多个节点同时启动时只有一个能写入成功
+        stringRedisTemplate.opsForHash().putIfAbsent(TOKEN_KEYS_KEY, "1", newSecret());
+        stringRedisTemplate.opsForValue().setIfAbsent(TOKEN_CURRENT_KEY_KEY, "1");
+        stringRedisTemplate.opsForValue().setIfAbsent(TOKEN_KEY_SEQ_KEY, "1");
+        refresh();
+    }
+
+    /**
+     * 签发令牌
+     */
+    public String issue(UserDTO userDTO) {
+        SigningKey key = currentKey;
+        long now = System.currentTimeMillis() / 1000;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            out.writeInt(key.kid);
+            out.writeLong(RANDOM.nextLong());
+            out.writeLong(now);
+            out.writeLong(now + ttlSeconds);
+            out.writeLong(userDTO.getId());
+            out.writeUTF(userDTO.getNickName() == null ? "" : userDTO.getNickName());
+            out.writeUTF(userDTO.getIcon() == null ? "" : userDTO.getIcon());
+            byte[] payload = bytes.toByteArray();
+            return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(key.sign(payload));
+        } catch (IOException e) {
+            throw new IllegalStateException("签发令牌失败", e);
+        }
+    }
+
+    /**
+     * 是否是签名令牌，随机token中不含'.'
+     */
+    public boolean isSignedToken(String token) {
+        return token.indexOf('.') > 0;
+    }
+
+    /**
+     * 校验令牌
+     * @return 令牌中的用户，签名错误、过期或已吊销时返回null
+     */
+    public UserDTO verify(String token) {
+        Claims claims = decode(token);
+        if (claims == null || claims.expiresAt < System.currentTimeMillis() / 1000) {
+            return null;
+        }
+        if (isRevoked(claims)) {
+            return null;
+        }
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(claims.userId);
+        userDTO.setNickName(claims.nickName);
+        userDTO.setIcon(claims.icon);
+        return userDTO;
+    }
+
+    private Claims decode(String token) {
+        int i = token.indexOf('.');
+        if (i <= 0) {
+            return null;
+        }
+        try {
+            byte[] payload = DECODER.decode(token.substring(0, i));
+            byte[] signature = DECODER.decode(token.substring(i + 1));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            if (in.readByte() != VERSION) {
+                return null;
+            }
+            SigningKey key = keys.get(in.readInt());
+            // 先校验签名再解析其余字段
+            if (key == null || !MessageDigest.isEqual(key.sign(payload), signature)) {
+                return null;
+            }
+            Claims claims = new Claims();
+            claims.tokenId = in.readLong();
+            claims.issuedAt = in.readLong();
+            claims.expiresAt = in.readLong();
+            claims.userId = in.readLong();
+            claims.nickName = in.readUTF();
+            claims.icon = in.readUTF();
+            return claims;
+        } catch (IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+
+    private boolean isRevoked(Claims claims) {
+        BloomFilter filter = revoked;
+        String tokenId = String.valueOf(claims.tokenId);
+        if (filter.mightContain(tokenId)
+                && stringRedisTemplate.opsForZSet().score(TOKEN_REVOKED_KEY, tokenId) != null) {
+            return true;
+        }
+        if (filter.mightContain(USER_PREFIX + claims.userId)) {
+            // 用户被整体吊销，在此之前签发的令牌都无效
+            Double revokedAt = stringRedisTemplate.opsForZSet().score(TOKEN_REVOKED_USERS_KEY, claims.userId.toString());
+            return revokedAt != null && claims.issuedAt <= revokedAt;
+        }
+        return false;
+    }
+
+    /**
+     * 吊销令牌（登出）
+     */
+    public void revoke(String token) {
+        Claims claims = decode(token);
+        if (claims == null) {
+            return;
+        }
+        String tokenId = String.valueOf(claims.tokenId);
+        // 令牌过期后吊销记录就没用了，按过期时间清理
+        stringRedisTemplate.opsForZSet().add(TOKEN_REVOKED_KEY, tokenId, claims.expiresAt);
+        putRevoked(tokenId);
+        stringRedisTemplate.convertAndSend(TOKEN_REVOKE_TOPIC, tokenId);
+    }
+
+    /**
+     * 吊销用户在此之前签发的全部令牌（封禁）
+     */
+    public void revokeUser(Long userId) {
+        stringRedisTemplate.opsForZSet().add(TOKEN_REVOKED_USERS_KEY, userId.toString(), System.currentTimeMillis() / 1000);
+        putRevoked(USER_PREFIX + userId);
+        stringRedisTemplate.convertAndSend(TOKEN_REVOKE_TOPIC, USER_PREFIX + userId);
+    }
+
+    private void putRevoked(String id) {
+        synchronized (revokedLock) {
+            revoked.put(id);
+            if (building != null) {
+                building.put(id);
+            }
+        }
+    }
+
+    /**
+     * 定时同步密钥，清理过期的吊销记录并重建布隆过滤器
+     */
+    @Scheduled(initialDelay = 60000, fixedDelay = 60000)
+    public void refresh() {
+        refreshKeys();
+        try {
+            long now = System.currentTimeMillis() / 1000;
+            stringRedisTemplate.opsForZSet().removeRangeByScore(TOKEN_REVOKED_KEY, 0, now);
+            stringRedisTemplate.opsForZSet().removeRangeByScore(TOKEN_REVOKED_USERS_KEY, 0, now - ttlSeconds);
+            Long tokenCount = stringRedisTemplate.opsForZSet().zCard(TOKEN_REVOKED_KEY);
+            Long userCount = stringRedisTemplate.opsForZSet().zCard(TOKEN_REVOKED_USERS_KEY);
+            long size = (tokenCount == null ? 0 : tokenCount) + (userCount == null ? 0 : userCount);
+            // 先开始记录新增，再从redis加载，保证加载期间的吊销不会丢失
+            BloomFilter filter = new BloomFilter(Math.max(size * 2, 10000), BLOOM_FPP);
+            synchronized (revokedLock) {
+                building = filter;
+            }
+            Set<String> tokenIds = stringRedisTemplate.opsForZSet().range(TOKEN_REVOKED_KEY, 0, -1);
+            if (tokenIds != null) {
+                tokenIds.forEach(filter::put);
+            }
+            Set<String> userIds = stringRedisTemplate.opsForZSet().range(TOKEN_REVOKED_USERS_KEY, 0, -1);
+            if (userIds != null) {
+                userIds.forEach(userId -> filter.put(USER_PREFIX + userId));
+            }
+            synchronized (revokedLock) {
+                revoked = filter;
+                building = null;
+            }
+        } catch (Exception e) {
+            log.error("重建令牌吊销过滤器失败", e);
+        } finally {
+            synchronized (revokedLock) {
+                building = null;
+            }
+        }
+    }
+
+    private void refreshKeys() {
+        try {
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(TOKEN_KEYS_KEY);
+            String current = stringRedisTemplate.opsForValue().get(TOKEN_CURRENT_KEY_KEY);
+            Map<Integer, SigningKey> loaded = new HashMap<>(entries.size());
+            entries.forEach((kid, secret) -> {
+                int id = Integer.parseInt(kid.toString());
+                SigningKey existing = keys.get(id);
+                loaded.put(id, existing != null ? existing : new SigningKey(id, secret.toString()));
+            });
+            SigningKey currentLoaded = current == null ? null : loaded.get(Integer.valueOf(current));
+            if (currentLoaded == null) {
+                log.error("签名密钥不存在，kid：{}", current);
+                return;
+            }
+            keys = loaded;
+            currentKey = currentLoaded;
+        } catch (Exception e) {
+            log.error("同步签名密钥失败", e);
+        }
+    }
+
+    /**
+     * 定时轮换签名密钥，多个节点同时执行时只有一个生效
+     */
+    @Scheduled(cron = "${hmdp.session.signed.rotate-cron:0 0 4 * * ?}")
+    public void scheduledRotate() {
+        Boolean first = stringRedisTemplate.opsForValue()
+                .setIfAbsent(TOKEN_ROTATE_GUARD_KEY, "1", TOKEN_ROTATE_GUARD_TTL, TimeUnit.MINUTES);
+        if (BooleanUtil.isTrue(first)) {
+            rotateKey();
+        }
+    }
+
+    /**
+     * 轮换签名密钥：生成新密钥用于签发，保留最近的旧密钥用于校验，并通知所有节点同步
+     * 旧密钥会在之后的第RETAINED_KEYS次轮换时删除，轮换间隔需要大于令牌有效期
+     */
+    public void rotateKey() {
+        Long kid = stringRedisTemplate.opsForValue().increment(TOKEN_KEY_SEQ_KEY);
+        if (kid == null) {
+            return;
+        }
+        stringRedisTemplate.opsForHash().put(TOKEN_KEYS_KEY, kid.toString(), newSecret());
+        stringRedisTemplate.opsForValue().set(TOKEN_CURRENT_KEY_KEY, kid.toString());
+        for (Object old : stringRedisTemplate.opsForHash().keys(TOKEN_KEYS_KEY)) {
+            if (Long.parseLong(old.toString()) < kid - RETAINED_KEYS) {
+                stringRedisTemplate.opsForHash().delete(TOKEN_KEYS_KEY, old);
+            }
+        }
+        stringRedisTemplate.convertAndSend(TOKEN_KEYS_TOPIC, kid.toString());
+        log.info("签名密钥已轮换，kid：{}", kid);
+    }
+
+    private static String newSecret() {
+        byte[] secret = new byte[32];
+        RANDOM.nextBytes(secret);
+        return Base64.getEncoder().encodeToString(secret);
+    }
+
+    private static class Claims {
+        private long tokenId;
+        private long issuedAt;
+        private long expiresAt;
+        private Long userId;
+        private String nickName;
+        private String icon;
+    }
+
+    /**
+     * 签名密钥，Mac不是线程安全的，从池中借用
+     */
+    private static class SigningKey {
+        private final int kid;
+        private final BoundedPool<Mac> macPool;
+
+        private SigningKey(int kid, String secret) {
+            this.kid = kid;
+            SecretKeySpec spec = new SecretKeySpec(Base64.getDecoder().decode(secret), ALGORITHM);
+            this.macPool = new BoundedPool<>(64, () -> {
+                try {
+                    Mac m = Mac.getInstance(ALGORITHM);
+                    m.init(spec);
+                    return m;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+
+        private byte[] sign(byte[] payload) {
+            Mac mac = macPool.borrow();
+            try {
+                return mac.doFinal(payload);
+            } finally {
+                macPool.release(mac);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 请求合并：同一个key的并发调用只执行一次loader，其余调用等待并共享同一个结果
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    /**
+     * 执行loader，如果同一个key已经有调用在执行，则等待其结果
+     * @param key 合并的key
+     * @param loader 实际的加载逻辑
+     * @param timeout 等待其他调用结果的最长时间
+     * @param unit 时间单位
+     * @return loader的结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader, long timeout, TimeUnit unit) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = calls.putIfAbsent(key, future);
+        if (inFlight != null) {
+            // 已经有调用在执行，等待完成通知
+            shared.increment();
+            return (T) await(key, inFlight, timeout, unit);
+        }
+        executed.increment();
+        try {
+            T result = loader.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    private Object await(String key, CompletableFuture<Object> future, long timeout, TimeUnit unit) {
+        try {
+            return future.get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("等待加载结果超时，key：" + key, e);
+        }
+    }
+
+    /**
+     * 实际执行的次数
+     */
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    /**
+     * 共享了其他调用结果的次数
+     */
+    public long getShared() {
+        return shared.sum();
+    }
+
+    /**
+     * 正在执行中的key数量
+     */
+    public int getInFlight() {
+        return calls.size();
+    }
+}
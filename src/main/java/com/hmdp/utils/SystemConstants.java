@@ -5,4 +5,14 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    /**
+     * 附近店铺的查询半径，单位米
+     */
+    public static final double SHOP_GEO_RADIUS = 5000;
+    public static final int SHOP_GEO_LOAD_BATCH_SIZE = 1000;
+    public static final int SHOP_SEARCH_LOAD_BATCH_SIZE = 1000;
+    /**
+     * 店铺名称输入联想最多返回的条数
+     */
+    public static final int SHOP_SUGGEST_SIZE = 10;
 }
@@ -1,20 +1,34 @@
 package com.hmdp.utils;
 
 import com.hmdp.dto.UserDTO;
-import com.hmdp.entity.User;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
+/**
+ * 当前请求的登录用户
+ * <p>
+ * 保存在请求属性中，随请求结束释放，不需要每个线程单独清理；
+ * 请求在虚拟线程中执行、异步请求重新分发到其他线程时同样可以取到；不在请求中调用时返回null
+ */
 public class UserHolder {
-    private static final ThreadLocal<UserDTO> tl = new ThreadLocal<>();
+    private static final String USER_ATTRIBUTE = UserHolder.class.getName() + ".USER";
 
     public static void saveUser(UserDTO user){
-        tl.set(user);
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) {
+            attributes.setAttribute(USER_ATTRIBUTE, user, RequestAttributes.SCOPE_REQUEST);
+        }
     }
 
     public static UserDTO getUser(){
-        return tl.get();
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes == null ? null : (UserDTO) attributes.getAttribute(USER_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
     }
 
     public static void removeUser(){
-        tl.remove();
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) {
+            attributes.removeAttribute(USER_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        }
     }
 }
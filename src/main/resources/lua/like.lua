@@ -0,0 +1,19 @@
+-- 点赞数变化：更新点赞排行、点赞增量和热度排行，原子执行
+-- KEYS[1] 点赞排行(zset)  KEYS[2] 热度排行(zset)  KEYS[3] 待写回数据库的点赞增量(hash)
+-- ARGV[1] 博文id  ARGV[2] 变化量
+-- 热度 = log10(点赞数) + 发布时间 / 衰减周期，只替换其中的点赞部分，发布时间部分保持不变
+-- 返回值 最新点赞数
+
+local id = ARGV[1]
+local delta = tonumber(ARGV[2])
+-- 1.点赞排行
+local liked = tonumber(redis.call('zincrby', KEYS[1], delta, id))
+-- 2.点赞增量
+redis.call('hincrby', KEYS[3], id, delta)
+-- 3.热度排行
+local old = redis.call('zscore', KEYS[2], id)
+if (old ~= false) then
+    local timePart = tonumber(old) - math.log10(math.max(liked - delta, 1))
+    redis.call('zadd', KEYS[2], timePart + math.log10(math.max(liked, 1)), id)
+end
+return liked
@@ -0,0 +1,10 @@
+-- 可重入锁加锁：hash结构，field为持有者标识，value为重入次数
+-- KEYS[1] 锁key  ARGV[1] 持有者标识  ARGV[2] 租期(毫秒)
+-- 返回nil表示获取成功，否则返回锁的剩余有效期(毫秒)
+
+if (redis.call('exists', KEYS[1]) == 0 or redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    redis.call('hincrby', KEYS[1], ARGV[1], 1)
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return nil
+end
+return redis.call('pttl', KEYS[1])
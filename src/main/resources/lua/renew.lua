@@ -0,0 +1,8 @@
+-- 看门狗续期：只有持有者才能续期
+-- KEYS[1] 锁key  ARGV[1] 持有者标识  ARGV[2] 租期(毫秒)
+
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 1) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
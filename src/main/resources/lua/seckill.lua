@@ -0,0 +1,24 @@
+-- 秒杀资格判断：库存 + 一人一单，原子执行
+-- KEYS[1] 库存key  KEYS[2] 已下单用户集合key  KEYS[3] 订单消息队列(stream)
+-- ARGV[1] 优惠券id  ARGV[2] 用户id  ARGV[3] 订单id
+-- 返回值 0：成功  1：库存不足  2：重复下单  3：库存未预热
+
+local stock = redis.call('get', KEYS[1])
+-- 1.库存未加载到redis
+if (stock == false) then
+    return 3
+end
+-- 2.判断库存是否充足
+if (tonumber(stock) <= 0) then
+    return 1
+end
+-- 3.判断用户是否下过单
+if (redis.call('sismember', KEYS[2], ARGV[2]) == 1) then
+    return 2
+end
+-- 4.扣库存、记录下单用户
+redis.call('incrby', KEYS[1], -1)
+redis.call('sadd', KEYS[2], ARGV[2])
+-- 5.发送订单消息到队列
+redis.call('xadd', KEYS[3], '*', 'voucherId', ARGV[1], 'userId', ARGV[2], 'id', ARGV[3])
+return 0
@@ -0,0 +1,16 @@
+-- 可重入锁释放：先比较持有者再删除，避免误删别人的锁
+-- KEYS[1] 锁key  KEYS[2] 解锁通知频道  ARGV[1] 持有者标识  ARGV[2] 租期(毫秒)
+-- 返回 -1：不是锁的持有者  0：重入次数减一  1：锁已完全释放
+
+if (redis.call('hexists', KEYS[1], ARGV[1]) == 0) then
+    return -1
+end
+local count = redis.call('hincrby', KEYS[1], ARGV[1], -1)
+if (count > 0) then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 0
+end
+redis.call('del', KEYS[1])
+-- 通知等待中的线程
+redis.call('publish', KEYS[2], 'unlock')
+return 1
@@ -0,0 +1,291 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheSerializer;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SessionManager;
+import com.hmdp.utils.ShopCacheCodec;
+import com.hmdp.utils.SignedTokenCodec;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * 性能对比测试，只输出耗时，不参与默认的 mvn test，使用 mvn test -Pbenchmark 运行
+ */
+@Tag("benchmark")
+@SpringBootTest
+class BenchmarkTests {
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SessionManager sessionManager;
+    @Resource
+    private SignedTokenCodec signedTokenCodec;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheSerializer cacheSerializer;
+    @Resource(name = "cacheRedisTemplate")
+    private RedisTemplate<String, byte[]> cacheRedisTemplate;
+
+    private static final ExecutorService es = Executors.newFixedThreadPool(500);
+
+    @AfterAll
+    static void shutdownExecutor() {
+        es.shutdownNow();
+    }
+
+    /**
+     * 对比每次INCR和号段租用两种方式在并发下生成id的耗时
+     */
+    @Test
+    void benchmarkIdWorker() throws InterruptedException {
+        String keyPrefix = "benchmark:" + System.nanoTime();
+        try {
+            long incr = benchmarkIdWorker(redisIdWorker::nextIdByIncr, keyPrefix + ":incr");
+            long segment = benchmarkIdWorker(redisIdWorker::nextIdBySegment, keyPrefix + ":segment");
+            System.out.println("INCR time = " + incr + "ms");
+            System.out.println("segment time = " + segment + "ms");
+        } finally {
+            stringRedisTemplate.delete(stringRedisTemplate.keys("icr:" + keyPrefix + ":*"));
+        }
+    }
+
+    private long benchmarkIdWorker(ToLongFunction<String> generator, String keyPrefix) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(300);
+        Runnable task = () -> {
+            for (int i = 0; i < 100; i++) {
+                generator.applyAsLong(keyPrefix);
+            }
+            latch.countDown();
+        };
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < 300; i++) {
+            es.submit(task);
+        }
+        Assertions.assertTrue(latch.await(60, TimeUnit.SECONDS), "id生成超时");
+        return System.currentTimeMillis() - begin;
+    }
+
+    /**
+     * 对比redis会话和签名令牌两种模式下，登录拦截器每次请求的平均耗时
+     */
+    @Test
+    void benchmarkInterceptorLatency() throws Exception {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        user.setNickName("user_benchmark");
+        user.setIcon("");
+        String redisToken = sessionManager.create(user);
+        String signedToken = signedTokenCodec.issue(user);
+        RefreshTokenInterceptor interceptor = new RefreshTokenInterceptor(sessionManager);
+        try {
+            // 预热
+            benchmarkInterceptor(interceptor, redisToken, 10000);
+            benchmarkInterceptor(interceptor, signedToken, 10000);
+            long redis = benchmarkInterceptor(interceptor, redisToken, 100000);
+            long signed = benchmarkInterceptor(interceptor, signedToken, 100000);
+            System.out.println("redis session avg = " + redis + "ns");
+            System.out.println("signed token avg = " + signed + "ns");
+            System.out.println("session stats = " + sessionManager.stats());
+        } finally {
+            sessionManager.invalidate(redisToken);
+            sessionManager.invalidate(signedToken);
+        }
+    }
+
+    private long benchmarkInterceptor(RefreshTokenInterceptor interceptor, String token, int times) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("authorization", token);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        long begin = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            interceptor.preHandle(request, response, null);
+            interceptor.afterCompletion(request, response, null, null);
+        }
+        return (System.nanoTime() - begin) / times;
+    }
+
+    /**
+     * 固定4个线程时，同步和异步查询的吞吐量对比；每个key只查询一次，全部命中redis
+     */
+    @Test
+    void benchmarkAsyncCacheThroughput() throws InterruptedException {
+        int count = 20000;
+        int threads = 4;
+        Shop shop = HmDianPingApplicationTests.sampleShop();
+        String syncPrefix = "cache:benchmark:sync:" + System.nanoTime() + ":";
+        String asyncPrefix = "cache:benchmark:async:" + System.nanoTime() + ":";
+        Map<String, Shop> values = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            values.put(syncPrefix + i, shop);
+            values.put(asyncPrefix + i, shop);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            cacheClient.setBatch(values, 10L, TimeUnit.MINUTES);
+
+            // 同步：每个线程等待redis返回后再发下一个请求
+            CountDownLatch syncLatch = new CountDownLatch(threads);
+            long begin = System.currentTimeMillis();
+            for (int t = 0; t < threads; t++) {
+                int start = t;
+                pool.submit(() -> {
+                    try {
+                        for (int i = start; i < count; i += threads) {
+                            cacheClient.queryWithPassThrough(syncPrefix, i, Shop.class, id -> null, 10L, TimeUnit.MINUTES);
+                        }
+                    } finally {
+                        syncLatch.countDown();
+                    }
+                });
+            }
+            Assertions.assertTrue(syncLatch.await(60, TimeUnit.SECONDS), "同步查询超时");
+            long syncMillis = System.currentTimeMillis() - begin;
+
+            // 异步：线程只负责发出请求，最多同时有1024个请求未完成
+            Semaphore inflight = new Semaphore(1024);
+            CountDownLatch asyncLatch = new CountDownLatch(count);
+            begin = System.currentTimeMillis();
+            for (int t = 0; t < threads; t++) {
+                int start = t;
+                pool.submit(() -> {
+                    for (int i = start; i < count; i += threads) {
+                        inflight.acquireUninterruptibly();
+                        cacheClient.queryWithPassThroughAsync(asyncPrefix, i, Shop.class, id -> null, 10L, TimeUnit.MINUTES)
+                                .whenComplete((r, e) -> {
+                                    inflight.release();
+                                    asyncLatch.countDown();
+                                });
+                    }
+                });
+            }
+            Assertions.assertTrue(asyncLatch.await(60, TimeUnit.SECONDS), "异步查询超时");
+            long asyncMillis = System.currentTimeMillis() - begin;
+
+            System.out.println("sync " + count + " ops = " + syncMillis + "ms, " + count * 1000L / Math.max(syncMillis, 1) + " ops/s");
+            System.out.println("async " + count + " ops = " + asyncMillis + "ms, " + count * 1000L / Math.max(asyncMillis, 1) + " ops/s");
+        } finally {
+            pool.shutdownNow();
+            cacheRedisTemplate.delete(values.keySet());
+        }
+    }
+
+    /**
+     * 每次缓存命中分配的字节数：本地缓存命中、redis命中（字节模板+二进制解码）、redis命中（升级前的String+JSON）
+     */
+    @Test
+    void benchmarkCacheAllocation() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Shop shop = HmDianPingApplicationTests.sampleShop();
+        String key = "cache:benchmark:shop:" + System.nanoTime() + ":";
+        try {
+            cacheClient.set(key + shop.getId(), shop, 10L, TimeUnit.MINUTES);
+            stringRedisTemplate.opsForValue().set(key + "json", JSONUtil.toJsonStr(shop), 10L, TimeUnit.MINUTES);
+
+            Supplier<Object> localHit = () -> cacheClient.queryWithPassThrough(key, shop.getId(), Shop.class,
+                    id -> null, 10L, TimeUnit.MINUTES);
+            Supplier<Object> redisHit = () -> cacheSerializer.decode(
+                    cacheRedisTemplate.opsForValue().get(key + shop.getId()), Shop.class);
+            Supplier<Object> jsonHit = () -> JSONUtil.toBean(
+                    stringRedisTemplate.opsForValue().get(key + "json"), Shop.class);
+            for (Supplier<Object> s : Arrays.asList(localHit, redisHit, jsonHit)) {
+                Assertions.assertEquals(shop, s.get());
+                // 预热
+                allocatedBytes(threadMXBean, s, 5000);
+            }
+            System.out.println("local hit allocated = " + allocatedBytes(threadMXBean, localHit, 20000) + " bytes/op");
+            System.out.println("redis hit (byte[] + binary) allocated = "
+                    + allocatedBytes(threadMXBean, redisHit, 20000) + " bytes/op");
+            System.out.println("redis hit (String + JSON) allocated = "
+                    + allocatedBytes(threadMXBean, jsonHit, 20000) + " bytes/op");
+        } finally {
+            cacheClient.evict(key + shop.getId());
+            stringRedisTemplate.delete(key + "json");
+        }
+    }
+
+    private long allocatedBytes(com.sun.management.ThreadMXBean threadMXBean, Supplier<Object> task, int times) {
+        long threadId = Thread.currentThread().getId();
+        long begin = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < times; i++) {
+            task.get();
+        }
+        return (threadMXBean.getThreadAllocatedBytes(threadId) - begin) / times;
+    }
+
+    /**
+     * 对比JSON和二进制编码下，店铺缓存（带逻辑过期时间）每次编解码的平均耗时和字节数
+     */
+    @Test
+    void benchmarkCacheCodec() {
+        Shop shop = HmDianPingApplicationTests.sampleShop();
+        long expireMillis = System.currentTimeMillis() + 30 * 60 * 1000;
+        CacheSerializer binary = new CacheSerializer(Collections.singletonList(new ShopCacheCodec()), "binary");
+
+        // 升级前的方式：RedisData包装，JSON需要解析两次
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        byte[] json = JSONUtil.toJsonStr(redisData).getBytes();
+        byte[] bin = binary.encodeWithExpire(shop, expireMillis);
+
+        Supplier<Object> jsonEncode = () -> JSONUtil.toJsonStr(redisData);
+        Supplier<Object> jsonDecode = () -> JSONUtil.toBean(
+                (JSONObject) JSONUtil.toBean(new String(json), RedisData.class).getData(), Shop.class);
+        Supplier<Object> binEncode = () -> binary.encodeWithExpire(shop, expireMillis);
+        Supplier<Object> binDecode = () -> binary.decodeWithExpire(bin, Shop.class);
+        // 预热
+        for (Supplier<Object> s : Arrays.asList(jsonEncode, jsonDecode, binEncode, binDecode)) {
+            benchmarkCodec(s, 20000);
+        }
+        System.out.println("json bytes = " + json.length + ", binary bytes = " + bin.length);
+        System.out.println("json encode avg = " + benchmarkCodec(jsonEncode, 100000) + "ns");
+        System.out.println("json decode avg = " + benchmarkCodec(jsonDecode, 100000) + "ns");
+        System.out.println("binary encode avg = " + benchmarkCodec(binEncode, 100000) + "ns");
+        System.out.println("binary decode avg = " + benchmarkCodec(binDecode, 100000) + "ns");
+    }
+
+    private long benchmarkCodec(Supplier<Object> task, int times) {
+        Object sink = null;
+        long begin = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            sink = task.get();
+        }
+        long avg = (System.nanoTime() - begin) / times;
+        Assertions.assertNotNull(sink);
+        return avg;
+    }
+}
@@ -1,9 +1,374 @@
 package com.hmdp;
 
+import cn.hutool.json.JSONUtil;
+import com.hmdp.controller.ShopTypeController;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheChangeStream;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheSerializer;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SessionManager;
+import com.hmdp.utils.ShopSearchIndex;
+import com.hmdp.utils.ShopCacheCodec;
+import com.hmdp.utils.SignedTokenCodec;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
 
+    @Resource
+    private RedisIdWorker redisIdWorker;
+    @Resource
+    private SessionManager sessionManager;
+    @Resource
+    private SignedTokenCodec signedTokenCodec;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheChangeStream cacheChangeStream;
+    @Resource
+    private ShopTypeController shopTypeController;
+    @Resource
+    private CacheSerializer cacheSerializer;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource(name = "cacheRedisTemplate")
+    private RedisTemplate<String, byte[]> cacheRedisTemplate;
+
+    /**
+     * 与RedisIdWorker的开始时间戳一致
+     */
+    private static final long ID_BEGIN_TIMESTAMP = 1640995200L;
+
+    private static final ExecutorService es = Executors.newFixedThreadPool(16);
+
+    @AfterAll
+    static void shutdownExecutor() {
+        es.shutdownNow();
+    }
+
+    /**
+     * INCR和号段租用两种方式：id格式为 时间戳 << 32 | 当天序列号，并发下不重复，同一线程内递增
+     */
+    @Test
+    void testIdWorker() throws Exception {
+        assertIdLayout(redisIdWorker::nextIdByIncr);
+        assertIdLayout(redisIdWorker::nextIdBySegment);
+        assertIdsUniqueAndMonotonic(redisIdWorker::nextIdByIncr);
+        assertIdsUniqueAndMonotonic(redisIdWorker::nextIdBySegment);
+    }
+
+    private void assertIdLayout(ToLongFunction<String> generator) {
+        String keyPrefix = "test:" + System.nanoTime();
+        long begin = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - ID_BEGIN_TIMESTAMP;
+        try {
+            for (long i = 1; i <= 3; i++) {
+                long id = generator.applyAsLong(keyPrefix);
+                long end = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) - ID_BEGIN_TIMESTAMP;
+                Assertions.assertTrue(id >>> 32 >= begin && id >>> 32 <= end);
+                // 新的key前缀，当天序列号从1开始
+                Assertions.assertEquals(i, id & 0xFFFFFFFFL);
+            }
+        } finally {
+            stringRedisTemplate.delete(stringRedisTemplate.keys("icr:" + keyPrefix + ":*"));
+        }
+    }
+
+    private void assertIdsUniqueAndMonotonic(ToLongFunction<String> generator) throws Exception {
+        String keyPrefix = "test:" + System.nanoTime();
+        int threads = 16;
+        int perThread = 2000;
+        try {
+            List<Future<long[]>> futures = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                futures.add(es.submit(() -> {
+                    long[] ids = new long[perThread];
+                    for (int i = 0; i < perThread; i++) {
+                        ids[i] = generator.applyAsLong(keyPrefix);
+                    }
+                    return ids;
+                }));
+            }
+            Set<Long> all = new HashSet<>(threads * perThread * 2);
+            for (Future<long[]> future : futures) {
+                long[] ids = future.get(30, TimeUnit.SECONDS);
+                for (int i = 0; i < ids.length; i++) {
+                    if (i > 0) {
+                        Assertions.assertTrue(ids[i] > ids[i - 1], "同一线程内id应递增");
+                    }
+                    all.add(ids[i]);
+                }
+            }
+            Assertions.assertEquals(threads * perThread, all.size());
+        } finally {
+            stringRedisTemplate.delete(stringRedisTemplate.keys("icr:" + keyPrefix + ":*"));
+        }
+    }
+
+    /**
+     * redis会话和签名令牌两种模式下，登录拦截器都能识别出用户；篡改、已吊销或失效的令牌不能登录
+     */
+    @Test
+    void testInterceptorAuthentication() throws Exception {
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        user.setNickName("user_test");
+        user.setIcon("");
+        String redisToken = sessionManager.create(user);
+        String signedToken = signedTokenCodec.issue(user);
+        RefreshTokenInterceptor interceptor = new RefreshTokenInterceptor(sessionManager);
+        try {
+            Assertions.assertEquals(1L, authenticate(interceptor, redisToken).getId());
+            Assertions.assertEquals(1L, authenticate(interceptor, signedToken).getId());
+            // 篡改负载后签名不匹配
+            char c = signedToken.charAt(2);
+            String tampered = signedToken.substring(0, 2) + (c == 'A' ? 'B' : 'A') + signedToken.substring(3);
+            Assertions.assertNull(authenticate(interceptor, tampered));
+            Assertions.assertNull(authenticate(interceptor, "not-a-session"));
+        } finally {
+            sessionManager.invalidate(redisToken);
+            sessionManager.invalidate(signedToken);
+        }
+        Assertions.assertNull(authenticate(interceptor, redisToken));
+        Assertions.assertNull(authenticate(interceptor, signedToken));
+    }
+
+    /**
+     * 执行一次拦截器，返回请求处理期间的登录用户
+     */
+    private UserDTO authenticate(RefreshTokenInterceptor interceptor, String token) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("authorization", token);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        try {
+            Assertions.assertTrue(interceptor.preHandle(request, response, null));
+            return UserHolder.getUser();
+        } finally {
+            interceptor.afterCompletion(request, response, null, null);
+            Assertions.assertNull(UserHolder.getUser());
+        }
+    }
+
+    /**
+     * 二进制编码的店铺缓存（带逻辑过期时间）能原样解码，并兼容升级前的JSON格式
+     */
+    @Test
+    void testCacheCodec() {
+        Shop shop = sampleShop();
+        long expireMillis = System.currentTimeMillis() + 30 * 60 * 1000;
+        CacheSerializer binary = new CacheSerializer(Collections.singletonList(new ShopCacheCodec()), "binary");
+
+        // 升级前的方式：RedisData包装，JSON需要解析两次
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        byte[] json = JSONUtil.toJsonStr(redisData).getBytes();
+        byte[] bin = binary.encodeWithExpire(shop, expireMillis);
+        Assertions.assertEquals(shop, binary.decodeWithExpire(bin, Shop.class).getData());
+        Assertions.assertEquals(expireMillis, binary.decodeWithExpire(bin, Shop.class).getExpireMillis());
+        Assertions.assertEquals(shop.getName(), binary.decodeWithExpire(json, Shop.class).getData().getName());
+    }
+
+    /**
+     * 30%的访问集中在3个key上，其余分散在10万个key上：热点key应当晋升，访问停止后降级
+     */
+    @Test
+    void testHotKeyDetector() {
+        HotKeyDetector detector = new HotKeyDetector(true, 8, 4, 500, 100);
+        Random random = new Random(1);
+        for (int i = 0; i < 200000; i++) {
+            detector.record(random.nextInt(10) < 3 ? "cache:shop:" + random.nextInt(3) : "cache:shop:" + (3 + random.nextInt(100000)));
+        }
+        detector.rotate();
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertTrue(detector.isHot("cache:shop:" + i));
+        }
+        Assertions.assertFalse(detector.isHot("cache:shop:4"));
+        Assertions.assertEquals(3L, detector.stats().get("promotions"));
+        Assertions.assertEquals(3, ((Map<?, ?>) detector.stats().get("hotKeys")).size());
+        // 一个窗口内没有访问，全部降级
+        detector.rotate();
+        Assertions.assertFalse(detector.isHot("cache:shop:0"));
+        Assertions.assertEquals(3L, detector.stats().get("demotions"));
+        Assertions.assertTrue(((Map<?, ?>) detector.stats().get("hotKeys")).isEmpty());
+    }
+
+    /**
+     * 模拟binlog同步组件写入变更事件：第一次删除后并发读写回的旧数据，由延迟的第二次删除清理
+     */
+    @Test
+    void testCacheChangeDoubleDelete() throws InterruptedException {
+        String key = CACHE_SHOP_KEY + Long.MAX_VALUE;
+        cacheClient.set(key, sampleShop(), 10L, TimeUnit.MINUTES);
+        cacheChangeStream.publish(CacheChangeStream.TABLE_SHOP, Long.MAX_VALUE);
+        waitUntil(() -> !Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)), 3000);
+        // 第一次删除必须已经生效，否则下面观察到的只是首删，而不是延迟双删
+        Assertions.assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)));
+        // 第一次删除之后，并发读把旧数据写回了缓存
+        cacheClient.set(key, sampleShop(), 10L, TimeUnit.MINUTES);
+        waitUntil(() -> !Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)), 5000);
+        Assertions.assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)));
+    }
+
+    /**
+     * 店铺类型列表：首次请求返回带ETag的响应体，再次请求带上ETag返回304
+     */
+    @Test
+    void testShopTypeEtag() {
+        ResponseEntity<byte[]> first = shopTypeController.queryTypeList(null);
+        Assertions.assertEquals(HttpStatus.OK, first.getStatusCode());
+        String etag = first.getHeaders().getETag();
+        Assertions.assertNotNull(etag);
+        Assertions.assertTrue(new String(first.getBody(), StandardCharsets.UTF_8).contains("\"success\":true"));
+        ResponseEntity<byte[]> second = shopTypeController.queryTypeList(etag);
+        Assertions.assertEquals(HttpStatus.NOT_MODIFIED, second.getStatusCode());
+        Assertions.assertNull(second.getBody());
+    }
+
+    @Test
+    void testShopSearchIndex() {
+        List<Shop> shops = Arrays.asList(
+                searchShop(1L, "103茶餐厅", "大关", "金华路锦昌文华苑29号", 37, 4215),
+                searchShop(2L, "蔡馬洪涛烤肉·老北京铜锅涮羊肉", "拱宸桥/上塘", "上塘路1035号", 45, 2160),
+                searchShop(3L, "新白鹿餐厅(运河上街店)", "运河上街", "台州路2号运河上街购物中心F5", 46, 12035),
+                searchShop(4L, "KFC Coffee茶餐", "大关", "大关路100号", 40, 100));
+        ShopSearchIndex index = new ShopSearchIndex();
+        Assertions.assertFalse(index.isReady());
+        index.rebuild(lastId -> shops.stream().filter(shop -> shop.getId() > lastId).limit(2)
+                .collect(java.util.stream.Collectors.toList()));
+        Assertions.assertTrue(index.isReady());
+        // 相关度相同时按评分排序
+        Assertions.assertEquals(Arrays.asList(4L, 1L), index.search("茶餐", 0, 10));
+        Assertions.assertEquals(Collections.singletonList(4L), index.search("kfc cof", 0, 10));
+        // 商圈、地址也参与匹配，商圈和地址都匹配的相关度更高
+        Assertions.assertEquals(Collections.singletonList(3L), index.search("台州路", 0, 10));
+        Assertions.assertEquals(Arrays.asList(4L, 1L), index.search("大关", 0, 10));
+        Assertions.assertEquals(Collections.singletonList(1L), index.search("大关", 1, 10));
+        Assertions.assertTrue(index.search("餐厅 北京", 0, 10).isEmpty());
+        Assertions.assertEquals(Collections.singletonList("新白鹿餐厅(运河上街店)"), index.suggest("新白", 10));
+        // 增量更新
+        index.remove(4L);
+        Assertions.assertEquals(Collections.singletonList(1L), index.search("茶餐", 0, 10));
+        index.put(searchShop(2L, "老北京涮肉", "上塘", "上塘路1035号", 45, 2160));
+        Assertions.assertTrue(index.search("铜锅", 0, 10).isEmpty());
+        Assertions.assertEquals(Collections.singletonList(2L), index.search("涮肉", 0, 10));
+    }
+
+    private Shop searchShop(Long id, String name, String area, String address, int score, int sold) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName(name);
+        shop.setArea(area);
+        shop.setAddress(address);
+        shop.setScore(score);
+        shop.setSold(sold);
+        return shop;
+    }
+
+    private void waitUntil(Supplier<Boolean> condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * 异步查询与同步查询的结果一致：命中、命中空值、未命中时查询数据库并写回
+     */
+    @Test
+    void testPassThroughAsync() {
+        String syncPrefix = "cache:test:sync:" + System.nanoTime() + ":";
+        String asyncPrefix = "cache:test:async:" + System.nanoTime() + ":";
+        Shop shop = sampleShop();
+        try {
+            // 1.命中
+            cacheClient.set(syncPrefix + 1, shop, 10L, TimeUnit.MINUTES);
+            cacheClient.set(asyncPrefix + 1, shop, 10L, TimeUnit.MINUTES);
+            Assertions.assertEquals(shop, queryBoth(syncPrefix, asyncPrefix, 1L, id -> null));
+            // 2.命中空值，不查询数据库
+            stringRedisTemplate.opsForValue().set(syncPrefix + 2, "", 10L, TimeUnit.MINUTES);
+            stringRedisTemplate.opsForValue().set(asyncPrefix + 2, "", 10L, TimeUnit.MINUTES);
+            Assertions.assertNull(queryBoth(syncPrefix, asyncPrefix, 2L, id -> shop));
+            // 3.未命中，查询数据库并写回缓存；数据库中不存在时写入空值
+            Assertions.assertEquals(shop, queryBoth(syncPrefix, asyncPrefix, 3L, id -> shop));
+            Assertions.assertNull(queryBoth(syncPrefix, asyncPrefix, 4L, id -> null));
+            for (String prefix : Arrays.asList(syncPrefix, asyncPrefix)) {
+                Assertions.assertEquals(shop, cacheSerializer.decode(
+                        cacheRedisTemplate.opsForValue().get(prefix + 3), Shop.class));
+                Assertions.assertEquals("", stringRedisTemplate.opsForValue().get(prefix + 4));
+            }
+        } finally {
+            for (long id = 1; id <= 4; id++) {
+                cacheClient.evict(syncPrefix + id);
+                cacheClient.evict(asyncPrefix + id);
+            }
+        }
+    }
+
+    /**
+     * 同一场景下分别用同步和异步方式查询（使用不同的key，互不影响本地缓存），断言结果一致后返回
+     */
+    private Shop queryBoth(String syncPrefix, String asyncPrefix, Long id, Function<Long, Shop> dbFallback) {
+        Shop sync = cacheClient.queryWithPassThrough(syncPrefix, id, Shop.class, dbFallback, 10L, TimeUnit.MINUTES);
+        Shop async = cacheClient.queryWithPassThroughAsync(asyncPrefix, id, Shop.class, dbFallback, 10L, TimeUnit.MINUTES)
+                .join();
+        Assertions.assertEquals(sync, async);
+        return sync;
+    }
+
+    static Shop sampleShop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
 
 }
@@ -1,6 +1,7 @@
 package com.hmdp;
 
 import com.hmdp.service.impl.ShopServiceImpl;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
@@ -17,5 +18,14 @@ public class Test1 {
         shopService.saveShop2Redis(1L, 10L);
     }
 
+    @Test
+    void loadShopData() {
+        int count = shopService.loadShopGeo();
+        // 只导入有类型和坐标的店铺
+        long expected = shopService.query().isNotNull("type_id").isNotNull("x").isNotNull("y").count();
+        Assertions.assertEquals(expected, count);
+        Assertions.assertTrue(count > 0);
+    }
+
 
 }